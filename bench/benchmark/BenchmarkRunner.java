@@ -0,0 +1,169 @@
+package benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal benchmark harness in the style of JMH.
+ *
+ * Each benchmark runs in timed warmup and measurement iterations on the
+ * calling thread. Throughput is reported in operations per second, and, like
+ * the JMH gc profiler, the allocation rate per operation and the collections
+ * during measurement are reported as well.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * A benchmarked operation.
+     */
+    public interface Benchmark {
+        /**
+         * Runs the operation a number of times.
+         *
+         * @param operations Number of operations to run.
+         * @return A value depending on the results, so the work cannot be
+         *         eliminated.
+         */
+        double run(int operations);
+    }
+
+    private static final int BATCH = 1024;
+
+    private final List<String> mNames = new ArrayList<>();
+    private final List<Benchmark> mBenchmarks = new ArrayList<>();
+
+    private int mWarmupIterations = 3;
+    private int mMeasurementIterations = 5;
+    private long mIterationNanos = 1000000000L;
+
+    /** Keeps results alive. */
+    public static volatile double sink;
+
+    public void add(String name, Benchmark benchmark) {
+        mNames.add(name);
+        mBenchmarks.add(benchmark);
+    }
+
+    public void setWarmupIterations(int warmupIterations) {
+        mWarmupIterations = warmupIterations;
+    }
+
+    public void setMeasurementIterations(int measurementIterations) {
+        mMeasurementIterations = measurementIterations;
+    }
+
+    public void setIterationMillis(long millis) {
+        mIterationNanos = millis * 1000000L;
+    }
+
+    /**
+     * Runs all benchmarks whose name matches the filter and prints a table.
+     *
+     * @param filter Regular expression, or null to run all benchmarks.
+     */
+    public void run(String filter) {
+        Pattern pattern = filter == null ? null : Pattern.compile(filter);
+        System.out.println(String.format(Locale.ROOT, "%-60s %16s %10s %12s %8s %8s",
+                "Benchmark", "ops/s", "+- %", "B/op", "gc.count", "gc.ms"));
+        for (int i = 0; i < mBenchmarks.size(); i++) {
+            String name = mNames.get(i);
+            if (pattern != null && !pattern.matcher(name).find()) {
+                continue;
+            }
+            Result result = measure(mBenchmarks.get(i));
+            System.out.println(String.format(Locale.ROOT, "%-60s %16.0f %10.2f %12.2f %8d %8d",
+                    name, result.mOpsPerSecond, result.mErrorPercent, result.mBytesPerOp,
+                    result.mGcCount, result.mGcMillis));
+        }
+    }
+
+    private Result measure(Benchmark benchmark) {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            iterate(benchmark);
+        }
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long bytes = allocatedBytes();
+        long operations = 0;
+        double[] throughput = new double[mMeasurementIterations];
+        for (int i = 0; i < mMeasurementIterations; i++) {
+            long start = System.nanoTime();
+            long ops = iterate(benchmark);
+            throughput[i] = ops * 1e9 / (System.nanoTime() - start);
+            operations += ops;
+        }
+        bytes = allocatedBytes() - bytes;
+
+        Result result = new Result();
+        double mean = 0;
+        for (double t : throughput) {
+            mean += t;
+        }
+        mean /= throughput.length;
+        double variance = 0;
+        for (double t : throughput) {
+            variance += (t - mean) * (t - mean);
+        }
+        variance /= Math.max(1, throughput.length - 1);
+        result.mOpsPerSecond = mean;
+        result.mErrorPercent = 100 * Math.sqrt(variance) / mean;
+        result.mBytesPerOp = bytes < 0 ? Double.NaN : (double) bytes / operations;
+        result.mGcCount = gcCount() - gcCount;
+        result.mGcMillis = gcMillis() - gcMillis;
+        return result;
+    }
+
+    private long iterate(Benchmark benchmark) {
+        long end = System.nanoTime() + mIterationNanos;
+        long operations = 0;
+        double result = 0;
+        do {
+            result += benchmark.run(BATCH);
+            operations += BATCH;
+        } while (System.nanoTime() < end);
+        sink = result;
+        return operations;
+    }
+
+    /**
+     * @return Bytes allocated by the current thread so far, or -1 if the JVM
+     *         cannot tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static class Result {
+        double mOpsPerSecond;
+        double mErrorPercent;
+        double mBytesPerOp;
+        long mGcCount;
+        long mGcMillis;
+    }
+}
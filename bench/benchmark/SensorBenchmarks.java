@@ -0,0 +1,280 @@
+package benchmark;
+
+import engine.FleetEngine;
+import model.AccelerometerModel;
+import model.BlockAverageFilter;
+import model.FirDecimatorFilter;
+import model.GyroscopeModel;
+import model.MagneticFieldModel;
+import model.ReadoutFilter;
+import model.SensorModel;
+import model.SlidingWindowFilter;
+import utils.RotationBatch;
+import utils.RotationMatrix;
+import utils.SimulatedClock;
+import utils.Vector;
+
+/**
+ * Benchmarks of the sensor model hot paths.
+ *
+ * Usage: benchmark.SensorBenchmarks [--warmup n] [--iterations n]
+ *                                   [--time ms] [filter regex]
+ *
+ * Compile with the application sources on the class path, e.g.
+ *   javac -d out src/utils/*.java src/model/*.java src/engine/*.java bench/benchmark/*.java
+ *   java -cp out benchmark.SensorBenchmarks Readout
+ *
+ * The read-out benchmarks advance a simulated clock by one physics step of
+ * 1 ms per operation, so the DELAY_MS_* rate decides how often a read-out is
+ * published.
+ */
+public class SensorBenchmarks {
+
+    private static final long PHYSICS_STEP_NANOS = 1000000L;
+
+    private static final int[] DELAYS = {
+            SensorModel.DELAY_MS_FASTEST,
+            SensorModel.DELAY_MS_GAME,
+            SensorModel.DELAY_MS_UI,
+            SensorModel.DELAY_MS_NORMAL
+    };
+
+    private static final String[] DELAY_NAMES = {"FASTEST", "GAME", "UI", "NORMAL"};
+
+    /** Samples per call of the batch rotation kernels. */
+    private static final int BATCH = 4096;
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String filter = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup":
+                    runner.setWarmupIterations(Integer.parseInt(args[++i]));
+                    break;
+                case "--iterations":
+                    runner.setMeasurementIterations(Integer.parseInt(args[++i]));
+                    break;
+                case "--time":
+                    runner.setIterationMillis(Long.parseLong(args[++i]));
+                    break;
+                default:
+                    filter = args[i];
+            }
+        }
+
+        addRotationBenchmarks(runner);
+        addPhysicsBenchmarks(runner);
+        addReadoutBenchmarks(runner);
+        addFilterBenchmarks(runner);
+        addFleetBenchmarks(runner);
+
+        runner.run(filter);
+    }
+
+    private static void addRotationBenchmarks(BenchmarkRunner runner) {
+        runner.add("Vector.reverserollpitchyaw", operations -> {
+            Vector vec = new Vector();
+            double sum = 0;
+            for (int i = 0; i < operations; i++) {
+                vec.x = 0;
+                vec.y = 0;
+                vec.z = 9.80665;
+                vec.reverserollpitchyaw(i % 360, i % 181 - 90, i % 360);
+                sum += vec.x;
+            }
+            return sum;
+        });
+
+        // one operation is one sample
+        double[] roll = new double[BATCH];
+        double[] pitch = new double[BATCH];
+        double[] yaw = new double[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            roll[i] = i % 360;
+            pitch[i] = i % 181 - 90;
+            yaw[i] = i % 360;
+        }
+        double[] x = new double[BATCH];
+        double[] y = new double[BATCH];
+        double[] z = new double[BATCH];
+        RotationBatch batch = new RotationBatch(BATCH);
+        runner.add("RotationBatch.setReverseRollPitchYaw+apply", operations -> {
+            double sum = 0;
+            for (int done = 0; done < operations; done += BATCH) {
+                int n = Math.min(BATCH, operations - done);
+                batch.setReverseRollPitchYaw(roll, pitch, yaw, 0, n);
+                batch.apply(0, 0, 9.80665, x, y, z, 0, n);
+                sum += x[n - 1];
+            }
+            return sum;
+        });
+
+        batch.setReverseRollPitchYaw(roll, pitch, yaw, 0, BATCH);
+        runner.add("RotationBatch.apply:per-sample", operations -> {
+            double sum = 0;
+            for (int done = 0; done < operations; done += BATCH) {
+                int n = Math.min(BATCH, operations - done);
+                batch.apply(x, y, z, 0, n);
+                sum += x[n - 1];
+            }
+            return sum;
+        });
+
+        RotationMatrix shared = new RotationMatrix();
+        shared.setReverseRollPitchYaw(30, 20, 10);
+        runner.add("RotationBatch.apply:shared", operations -> {
+            double sum = 0;
+            for (int done = 0; done < operations; done += BATCH) {
+                int n = Math.min(BATCH, operations - done);
+                RotationBatch.apply(shared, x, y, z, 0, n);
+                sum += x[n - 1];
+            }
+            return sum;
+        });
+    }
+
+    private static void addPhysicsBenchmarks(BenchmarkRunner runner) {
+        AccelerometerModel accelerometerModel = new AccelerometerModel();
+        runner.add("AccelerometerModel.refreshAcceleration", operations -> {
+            double sum = 0;
+            for (int i = 0; i < operations; i++) {
+                accelerometerModel.refreshAcceleration(500, 50, 0.001);
+                sum += accelerometerModel.getAx();
+            }
+            return sum;
+        });
+
+        // one operation is one substep
+        for (AccelerometerModel.Integrator integrator : AccelerometerModel.Integrator.values()) {
+            AccelerometerModel model = new AccelerometerModel();
+            model.setIntegrator(integrator);
+            runner.add("AccelerometerModel.advance:" + integrator, operations -> {
+                double sum = 0;
+                for (int i = 0; i < operations; i++) {
+                    // keep the spring moving
+                    if (i % 1000 == 0) {
+                        model.setMove(i % 2000 == 0 ? 100 : -100, 50);
+                    }
+                    model.advance(AccelerometerModel.DEFAULT_SUBSTEP);
+                    sum += model.getAx();
+                }
+                return sum;
+            });
+        }
+
+        GyroscopeModel gyroscopeModel = new GyroscopeModel();
+        runner.add("GyroscopeModel.refreshAngularSpeed", operations -> {
+            double sum = 0;
+            for (int i = 0; i < operations; i++) {
+                // keep moving so the full computation runs every time
+                gyroscopeModel.refreshAngularSpeed(10, i % 181 - 90, i % 360, (i * 7) % 360);
+                sum += gyroscopeModel.getReadGyroscopeYaw();
+            }
+            return sum;
+        });
+    }
+
+    private static void addReadoutBenchmarks(BenchmarkRunner runner) {
+        for (int average = 0; average < 2; average++) {
+            for (int d = 0; d < DELAYS.length; d++) {
+                String suffix = (average == 1 ? "average" : "current") + ":" + DELAY_NAMES[d];
+
+                AccelerometerModel accelerometerModel = new AccelerometerModel();
+                accelerometerModel.setXYZ(new Vector(1, 2, 9.80665));
+                SimulatedClock accelerometerClock = setUp(accelerometerModel, average == 1, DELAYS[d]);
+                runner.add("AccelerometerModel.updateSensorReadoutValues:" + suffix, operations -> {
+                    double sum = 0;
+                    for (int i = 0; i < operations; i++) {
+                        accelerometerClock.advance(PHYSICS_STEP_NANOS);
+                        accelerometerModel.updateSensorReadoutValues();
+                        sum += accelerometerModel.getReadAccelerometerZ();
+                    }
+                    return sum;
+                });
+
+                GyroscopeModel gyroscopeModel = new GyroscopeModel();
+                gyroscopeModel.refreshAngularSpeed(10, 10, 20, 30);
+                SimulatedClock gyroscopeClock = setUp(gyroscopeModel, average == 1, DELAYS[d]);
+                runner.add("GyroscopeModel.updateSensorReadoutValues:" + suffix, operations -> {
+                    double sum = 0;
+                    for (int i = 0; i < operations; i++) {
+                        gyroscopeClock.advance(PHYSICS_STEP_NANOS);
+                        gyroscopeModel.updateSensorReadoutValues();
+                        sum += gyroscopeModel.getReadGyroscopeYaw();
+                    }
+                    return sum;
+                });
+
+                MagneticFieldModel magneticFieldModel = new MagneticFieldModel();
+                magneticFieldModel.setCompass(new Vector(5.9, 22.9, -43.2));
+                SimulatedClock magneticFieldClock = setUp(magneticFieldModel, average == 1, DELAYS[d]);
+                runner.add("MagneticFieldModel.updateSensorReadoutValues:" + suffix, operations -> {
+                    double sum = 0;
+                    for (int i = 0; i < operations; i++) {
+                        magneticFieldClock.advance(PHYSICS_STEP_NANOS);
+                        magneticFieldModel.updateSensorReadoutValues();
+                        sum += magneticFieldModel.getReadCompassX();
+                    }
+                    return sum;
+                });
+            }
+        }
+    }
+
+    private static void addFilterBenchmarks(BenchmarkRunner runner) {
+        // one operation is one sample, with a read-out every 100 samples
+        ReadoutFilter[] filters = {
+                new BlockAverageFilter(),
+                new SlidingWindowFilter(100),
+                FirDecimatorFilter.lowPass(100, 401)
+        };
+        for (ReadoutFilter filter : filters) {
+            double[] values = new double[3];
+            runner.add("ReadoutFilter.add:" + filter.getClass().getSimpleName(), operations -> {
+                double sum = 0;
+                for (int i = 0; i < operations; i++) {
+                    filter.add(i, 2 * i, 3 * i);
+                    if (i % 100 == 0 && filter.read(values)) {
+                        sum += values[0];
+                    }
+                }
+                return sum;
+            });
+        }
+    }
+
+    private static void addFleetBenchmarks(BenchmarkRunner runner) {
+        // one operation is one tick of all devices, with read-outs every
+        // tick, so the noisy runs draw noise for every device and tick
+        for (boolean noise : new boolean[]{false, true}) {
+            for (int devices : new int[]{1000, 10000}) {
+                FleetEngine fleet = new FleetEngine(devices);
+                SimulatedClock clock = new SimulatedClock();
+                fleet.setClock(clock);
+                for (int i = 0; i < devices; i++) {
+                    fleet.setOrientation(i, i % 360, i % 181 - 90, (i * 7) % 360);
+                }
+                if (noise) {
+                    fleet.setNoiseSeed(devices);
+                }
+                String name = "FleetEngine.tick:" + (noise ? "noise:" : "") + "devices=" + devices;
+                runner.add(name, operations -> {
+                    for (int i = 0; i < operations; i++) {
+                        clock.advance(PHYSICS_STEP_NANOS);
+                        fleet.tick();
+                    }
+                    return fleet.getReadAccelerometerZ(0);
+                });
+            }
+        }
+    }
+
+    private static SimulatedClock setUp(SensorModel model, boolean average, int delay) {
+        SimulatedClock clock = new SimulatedClock();
+        model.setClock(clock);
+        model.setAverage(average);
+        model.setUpdateDuration(delay);
+        return clock;
+    }
+}
@@ -0,0 +1,391 @@
+import engine.SensorScheduler;
+import engine.SimulationEngine;
+import model.BlockAverageFilter;
+import model.FirDecimatorFilter;
+import model.GyroscopeModel;
+import model.ReadoutFilter;
+import model.SensorModel;
+import model.SensorSample;
+import model.SlidingWindowFilter;
+import model.WorldMagneticModel;
+import recording.SensorRecorder;
+import recording.SessionReader;
+import recording.SessionReplayer;
+import server.BinaryFrameEncoder;
+import server.FrameEncoder;
+import server.SensorStreamServer;
+import server.TextFrameEncoder;
+import utils.SimulatedClock;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+
+/**
+ * Command line entry point that runs the simulation without JavaFX.
+ *
+ * Usage: HeadlessMain [--rate hz] [--duration seconds] [--report seconds]
+ *                     [--clock wall|simulated] [--port tcp-port]
+ *                     [--format text|binary|binary-double] [--record directory]
+ *                     [--replay directory] [--speed factor]
+ *                     [--sensor-rate hz] [--filter none|block|window:n|fir:ratio]
+ *                     [--idle on|off] [--noise seed] [--gyro euler|quaternion]
+ *                     [--wmm cof-file --location lat:lon[:km] [--date year]]
+ *                     [--yaw deg] [--pitch deg] [--roll deg]
+ *
+ * A rate of 0 runs the engine unthrottled. With the simulated clock, duration
+ * and report interval are in simulated time and the run takes only as long as
+ * the CPU needs. With a port, the enabled sensors are streamed to connecting
+ * emulators (wall clock only). With a directory, every tick is recorded into a
+ * new session there.
+ *
+ * --sensor-rate sets the read-out rate of all sensors (default 5 Hz); it may
+ * exceed the tick rate, and 0 updates the read-outs on every tick. The
+ * summary shows how late the read-outs ran against their deadlines.
+ * --filter sets the read-out filter fed on every tick: the block average
+ * since the last read-out, a sliding window of n ticks, or a low-pass FIR
+ * decimator keeping one output per ratio ticks.
+ *
+ * --noise adds typical MEMS noise and drift, reproducible from the seed.
+ *
+ * --gyro quaternion derives the gyroscope from the rotation between ticks,
+ * exact at any rate; euler keeps the smoothed Euler angle rates.
+ *
+ * --wmm loads a geomagnetic model in the WMM.COF format and sets the
+ * magnetic field at the given location, on the given date or the epoch of
+ * the model, instead of the built-in field.
+ *
+ * With --idle on, the engine thread parks while the orientation is at rest
+ * and nothing records; read-outs and the stream keep their rates.
+ *
+ * With --replay, the input orientation of a recorded session is fed through
+ * the sensor models at the given speed (0 for as fast as possible) instead of
+ * using the fixed orientation options; combine with --record to capture the
+ * read-outs of this model version.
+ */
+public class HeadlessMain {
+
+    private static final DecimalFormat TWO_DECIMAL_FORMAT = new DecimalFormat("#0.00");
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        double rate = 100;
+        double duration = 10;
+        double report = 1;
+        int yaw = 0;
+        int pitch = -90;
+        int roll = 0;
+        boolean simulated = false;
+        int port = -1;
+        FrameEncoder encoder = new TextFrameEncoder();
+        String recordDirectory = null;
+        String replayDirectory = null;
+        double speed = 0;
+        double sensorRate = 5;
+        boolean idle = false;
+        String filter = "none";
+        Long noiseSeed = null;
+        GyroscopeModel.Mode gyroMode = GyroscopeModel.Mode.EULER_RATE;
+        String wmmFile = null;
+        String location = null;
+        Double date = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--duration":
+                    duration = Double.parseDouble(value);
+                    break;
+                case "--report":
+                    report = Double.parseDouble(value);
+                    break;
+                case "--clock":
+                    if (value.equals("simulated")) {
+                        simulated = true;
+                    } else if (!value.equals("wall")) {
+                        usage("Unknown clock " + value);
+                    }
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--format":
+                    if (value.equals("binary")) {
+                        encoder = new BinaryFrameEncoder(false);
+                    } else if (value.equals("binary-double")) {
+                        encoder = new BinaryFrameEncoder(true);
+                    } else if (!value.equals("text")) {
+                        usage("Unknown format " + value);
+                    }
+                    break;
+                case "--record":
+                    recordDirectory = value;
+                    break;
+                case "--replay":
+                    replayDirectory = value;
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(value);
+                    break;
+                case "--sensor-rate":
+                    sensorRate = Double.parseDouble(value);
+                    break;
+                case "--filter":
+                    filter = value;
+                    break;
+                case "--noise":
+                    noiseSeed = Long.parseLong(value);
+                    break;
+                case "--gyro":
+                    if (value.equals("quaternion")) {
+                        gyroMode = GyroscopeModel.Mode.QUATERNION_DELTA;
+                    } else if (!value.equals("euler")) {
+                        usage("Unknown gyroscope mode " + value);
+                    }
+                    break;
+                case "--wmm":
+                    wmmFile = value;
+                    break;
+                case "--location":
+                    location = value;
+                    break;
+                case "--date":
+                    date = Double.parseDouble(value);
+                    break;
+                case "--idle":
+                    if (value.equals("on")) {
+                        idle = true;
+                    } else if (!value.equals("off")) {
+                        usage("Unknown idle mode " + value);
+                    }
+                    break;
+                case "--yaw":
+                    yaw = Integer.parseInt(value);
+                    break;
+                case "--pitch":
+                    pitch = Integer.parseInt(value);
+                    break;
+                case "--roll":
+                    roll = Integer.parseInt(value);
+                    break;
+                default:
+                    usage("Unknown option " + arg);
+            }
+        }
+
+        SimulationEngine engine = new SimulationEngine();
+        engine.setTickNanos(rate > 0 ? (long) (1e9 / rate) : 0);
+        if (simulated) {
+            if (rate <= 0) {
+                usage("The simulated clock requires a rate");
+            }
+            engine.setClock(new SimulatedClock());
+            if (port >= 0) {
+                usage("Streaming requires the wall clock");
+            }
+        }
+        long sensorPeriod = sensorRate > 0 ? (long) (1e9 / sensorRate) : 0;
+        for (SensorModel sensor : engine.getSensorModels()) {
+            sensor.setUpdatePeriodNanos(sensorPeriod);
+            sensor.setReadoutFilter(createFilter(filter));
+        }
+        engine.getGyroscopeModel().setMode(gyroMode);
+        if (wmmFile != null) {
+            setLocation(engine, WorldMagneticModel.load(Paths.get(wmmFile)), location, date);
+        } else if (location != null) {
+            usage("--location requires --wmm");
+        }
+        engine.setOrientation(yaw, pitch, roll);
+        engine.setIdleWhenAtRest(idle);
+        if (noiseSeed != null) {
+            engine.setNoiseSeed(noiseSeed);
+        }
+
+        SensorRecorder recorder = null;
+        if (recordDirectory != null) {
+            recorder = new SensorRecorder(Paths.get(recordDirectory));
+            engine.addTickListener(recorder);
+        }
+
+        if (replayDirectory != null) {
+            replay(engine, replayDirectory, speed, recorder);
+            return;
+        }
+
+        long durationNanos = (long) (duration * 1e9);
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        long reportNanos = Math.max(1, (long) (report * 1e9));
+        long lastTicks = 0;
+
+        if (simulated) {
+            for (long elapsed = 0; elapsed + reportNanos <= durationNanos; elapsed += reportNanos) {
+                engine.advance(reportNanos);
+                long ticks = engine.getTickCount();
+                printReadouts(engine, (ticks - lastTicks) * 1e9 / reportNanos);
+                lastTicks = ticks;
+            }
+            closeRecorder(engine, recorder);
+            printSummary(engine, start);
+            return;
+        }
+
+        SensorStreamServer server = null;
+        if (port >= 0) {
+            for (SensorModel sensor : engine.getSensorModels()) {
+                sensor.setEnabled(true);
+            }
+            server = new SensorStreamServer(port, encoder, engine.getSensorModels());
+            server.start();
+            System.out.println("Streaming on port " + server.getPort());
+        }
+
+        engine.start();
+        try {
+            long next = start + reportNanos;
+            while (next <= end) {
+                Thread.sleep(Math.max(0, (next - System.nanoTime()) / 1000000));
+                long ticks = engine.getTickCount();
+                printReadouts(engine, (ticks - lastTicks) * 1e9 / reportNanos);
+                lastTicks = ticks;
+                next += reportNanos;
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            engine.stop();
+        }
+        closeRecorder(engine, recorder);
+        printSummary(engine, start);
+    }
+
+    private static void replay(SimulationEngine engine, String directory, double speed,
+                               SensorRecorder recorder) throws IOException {
+        engine.setClock(new SimulatedClock());
+        long start = System.nanoTime();
+        SessionReader reader = new SessionReader(Paths.get(directory));
+        SessionReplayer replayer = new SessionReplayer(reader);
+        replayer.setSpeed(speed);
+        long records = replayer.replayInputs(engine, Long.MAX_VALUE);
+        reader.close();
+
+        printReadouts(engine, 0);
+        System.out.println("Replayed " + records + " records");
+        closeRecorder(engine, recorder);
+        printSummary(engine, start);
+    }
+
+    private static void setLocation(SimulationEngine engine, WorldMagneticModel model,
+                                    String location, Double date) {
+        if (location == null) {
+            usage("--wmm requires --location");
+        }
+        String[] parts = location.split(":");
+        if (parts.length < 2 || parts.length > 3) {
+            usage("Bad location " + location);
+        }
+        double latitude = Double.parseDouble(parts[0]);
+        double longitude = Double.parseDouble(parts[1]);
+        double altitude = parts.length == 3 ? Double.parseDouble(parts[2]) : 0;
+        double[] field = new double[3];
+        model.evaluate(latitude, longitude, altitude, date != null ? date : model.getEpoch(), field);
+        engine.setMagneticField(field[0], field[1], field[2]);
+        System.out.println("Magnetic field north " + TWO_DECIMAL_FORMAT.format(field[0])
+                + " nT, east " + TWO_DECIMAL_FORMAT.format(field[1])
+                + " nT, down " + TWO_DECIMAL_FORMAT.format(field[2]) + " nT");
+    }
+
+    private static ReadoutFilter createFilter(String filter) {
+        String[] parts = filter.split(":");
+        switch (parts[0]) {
+            case "none":
+                return null;
+            case "block":
+                return new BlockAverageFilter();
+            case "window":
+                if (parts.length == 2) {
+                    return new SlidingWindowFilter(Integer.parseInt(parts[1]));
+                }
+                break;
+            case "fir":
+                if (parts.length == 2) {
+                    int ratio = Integer.parseInt(parts[1]);
+                    return FirDecimatorFilter.lowPass(ratio, 4 * ratio + 1);
+                }
+                break;
+        }
+        usage("Unknown filter " + filter);
+        return null;
+    }
+
+    private static void closeRecorder(SimulationEngine engine, SensorRecorder recorder) throws IOException {
+        if (recorder == null) {
+            return;
+        }
+        engine.removeTickListener(recorder);
+        recorder.close();
+        System.out.println("Recorded " + recorder.getRecordCount() + " records to "
+                + recorder.getDirectory());
+    }
+
+    private static void printSummary(SimulationEngine engine, long start) {
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println("Ticks: " + engine.getTickCount()
+                + " in " + TWO_DECIMAL_FORMAT.format(elapsed) + " s");
+        for (SensorModel sensor : engine.getSensorModels()) {
+            printLag(engine, sensor);
+        }
+    }
+
+    private static void printLag(SimulationEngine engine, SensorModel sensor) {
+        SensorScheduler.Stats stats = engine.getScheduler().getStats(sensor);
+        System.out.println(sensor.getName() + ": " + stats.getUpdates() + " read-outs, lag mean "
+                + TWO_DECIMAL_FORMAT.format(stats.getMeanLagNanos() / 1e3) + " us, max "
+                + TWO_DECIMAL_FORMAT.format(stats.getMaxLagNanos() / 1e3) + " us");
+    }
+
+    private static void printReadouts(SimulationEngine engine, double ticksPerSecond) {
+        // the engine thread may be updating the read-outs meanwhile
+        SensorSample accelerometer = new SensorSample();
+        SensorSample gyroscope = new SensorSample();
+        SensorSample magneticField = new SensorSample();
+        engine.getAccelerometerModel().getReadout().read(accelerometer);
+        engine.getGyroscopeModel().getReadout().read(gyroscope);
+        engine.getMagneticFieldModel().getReadout().read(magneticField);
+
+        // gyroscope values are pitch, roll, yaw
+        System.out.println("ticks/s: " + TWO_DECIMAL_FORMAT.format(ticksPerSecond)
+                + " | accelerometer: "
+                + TWO_DECIMAL_FORMAT.format(accelerometer.x) + ", "
+                + TWO_DECIMAL_FORMAT.format(accelerometer.y) + ", "
+                + TWO_DECIMAL_FORMAT.format(accelerometer.z)
+                + " | gyroscope: "
+                + TWO_DECIMAL_FORMAT.format(gyroscope.x) + ", "
+                + TWO_DECIMAL_FORMAT.format(gyroscope.z) + ", "
+                + TWO_DECIMAL_FORMAT.format(gyroscope.y)
+                + " | magnetic field: "
+                + TWO_DECIMAL_FORMAT.format(magneticField.x) + ", "
+                + TWO_DECIMAL_FORMAT.format(magneticField.y) + ", "
+                + TWO_DECIMAL_FORMAT.format(magneticField.z));
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: HeadlessMain [--rate hz] [--duration seconds] [--report seconds]"
+                + " [--clock wall|simulated] [--port tcp-port]"
+                + " [--format text|binary|binary-double] [--record directory]"
+                + " [--replay directory] [--speed factor]"
+                + " [--sensor-rate hz] [--filter none|block|window:n|fir:ratio]"
+                + " [--idle on|off] [--noise seed] [--gyro euler|quaternion]"
+                + " [--wmm cof-file --location lat:lon[:km] [--date year]]"
+                + " [--yaw deg] [--pitch deg] [--roll deg]");
+        System.exit(1);
+    }
+}
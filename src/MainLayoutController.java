@@ -1,5 +1,5 @@
-import javafx.application.Platform;
-import javafx.concurrent.Task;
+import engine.SimulationEngine;
+import javafx.animation.AnimationTimer;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Label;
@@ -11,11 +11,13 @@ import javafx.scene.paint.PhongMaterial;
 import javafx.scene.shape.Box;
 import javafx.scene.transform.Rotate;
 import model.*;
-import utils.Vector;
+import utils.RotationCache;
 
 import java.net.URL;
 import java.text.DecimalFormat;
 import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class MainLayoutController implements Initializable {
 
@@ -49,18 +51,54 @@ public class MainLayoutController implements Initializable {
     private int yawValue;
     private int pitchValue;
     private int rollValue;
+    /**
+     * Whether yawValue, pitchValue or rollValue changed since the engine was
+     * last given the orientation. Input handlers only set the values; the
+     * orientation is applied once per frame, however many sliders moved.
+     */
+    private boolean orientationDirty;
 
-    private final double GRAVITY_CONSTANT = 9.80665;
-    private final double MAGNETIC_NORTH = 22874.1;
-    private final double MAGNETIC_EAST = 5939.5;
-    private final double MAGNETIC_VERTICAL = 43180.5;
+    // Device position in pixels, moved by dragging with the secondary button
+    private double moveX;
+    private double moveZ;
+    /** Whether moveX or moveZ changed since the engine was last given them. */
+    private boolean moveDirty;
+
+    private static final Logger LOGGER = Logger.getLogger(MainLayoutController.class.getName());
 
     private static final DecimalFormat TWO_DECIMAL_FORMAT = new DecimalFormat("#0.00");
 
+    /** Memory cap for cached slider orientations. */
+    private static final long ROTATION_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private SimulationEngine engine;
     private AccelerometerModel accelerometerModel;
     private GyroscopeModel gyroscopeModel;
     private MagneticFieldModel magneticFieldModel;
 
+    private SensorLabel accelerometerSensorLabel;
+    private SensorLabel gyroscopeSensorLabel;
+    private SensorLabel magneticFieldSensorLabel;
+
+    /**
+     * Applies the input of the frame and refreshes the sensor labels once
+     * per rendered frame, independently of the simulation rate.
+     */
+    private final AnimationTimer sensorRefreshTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (orientationDirty) {
+                orientationDirty = false;
+                updateSliderValues();
+            }
+            if (moveDirty) {
+                moveDirty = false;
+                engine.setMove(moveX, moveZ);
+            }
+            updateSensorValues();
+        }
+    };
+
     private double mousePosX = 0;
     private double mousePosY = 0;
 
@@ -74,39 +112,43 @@ public class MainLayoutController implements Initializable {
         pitchSlider.setValue(-90);
 
         //region init
-        accelerometerModel = new AccelerometerModel();
-        gyroscopeModel = new GyroscopeModel();
-        magneticFieldModel = new MagneticFieldModel();
+        engine = new SimulationEngine();
+        // the sliders submit whole degrees on the FX thread, which owns the cache
+        engine.getInputQueue().setRotationCache(new RotationCache(ROTATION_CACHE_BYTES));
+        accelerometerModel = engine.getAccelerometerModel();
+        gyroscopeModel = engine.getGyroscopeModel();
+        magneticFieldModel = engine.getMagneticFieldModel();
 
         accelerometerModel.setUpdateDuration(200);
         gyroscopeModel.setUpdateDuration(200);
         magneticFieldModel.setUpdateDuration(200);
 
-        Task<Void> task = new Task<Void>() {
-            @Override
-            protected Void call() throws Exception {
-                updateSensorValues();
-                return null;
-            }
-        };
-        new Thread(task).start();
+        accelerometerSensorLabel = new SensorLabel(accelerometerLabel, accelerometerModel, 0, 1, 2);
+        // gyroscope values are pitch, roll, yaw; the label shows pitch, yaw, roll
+        gyroscopeSensorLabel = new SensorLabel(gyroscopeLabel, gyroscopeModel, 0, 2, 1);
+        magneticFieldSensorLabel = new SensorLabel(magneticFieldLabel, magneticFieldModel, 0, 1, 2);
+
+        // park the engine while the sliders are not moving
+        engine.setIdleWhenAtRest(true);
+        engine.start();
+        sensorRefreshTimer.start();
 
         yawSlider.valueProperty().addListener((observable, oldvalue, newvalue) ->
                 {
                     yawValue = newvalue.intValue();
-                    updateSliderValues();
+                    orientationDirty = true;
                 } );
 
         pitchSlider.valueProperty().addListener((observable, oldvalue, newvalue) ->
                 {
                     pitchValue = newvalue.intValue();
-                    updateSliderValues();
+                    orientationDirty = true;
                 } );
 
         rollSlider.valueProperty().addListener((observable, oldvalue, newvalue) ->
                 {
                     rollValue = newvalue.intValue();
-                    updateSliderValues();
+                    orientationDirty = true;
                 } );
         //endregion
 
@@ -135,28 +177,26 @@ public class MainLayoutController implements Initializable {
                 if(rotateXAngle > 270 || (rotateXAngle < 90 && rotateXAngle > 0)) {
                     if(rotateXAngle > 270) {
                         temp = 360 - rotateXAngle - 90;
-                        System.out.println("Temp 1: " + temp);
                         pitchValue = (int) (temp);
-                        System.out.println("pitchValue: " + pitchValue);
+                        logPitch(1, temp, pitchValue);
                         pitchSlider.setValue(pitchValue);
-                        updateSliderValues();
+                        orientationDirty = true;
                     }
                     else {
                         temp = rotateXAngle - 90;
-                        System.out.println("Temp 2: " + temp);
                         pitchValue = (int) ((90-temp)*2)-360;
-                        System.out.println("pitchValue: " + pitchValue);
+                        logPitch(2, temp, pitchValue);
                         pitchSlider.setValue(pitchValue);
-                        updateSliderValues();
+                        orientationDirty = true;
                     }
                 }
                 else if(rotateXAngle <= 270 || rotateXAngle >= 90) {
                     if(rotateXAngle <= 270 && rotateXAngle <= 180) {
                         temp = rotateXAngle - 90;
-                        System.out.println("Temp 3: " + temp);
+                        logTemp(3, temp);
                     } else {
                         temp = 360 - rotateXAngle - 90;
-                        System.out.println("Temp 4: " + temp);
+                        logTemp(4, temp);
                     }
                 }
                 //pitchValue = (int)temp;
@@ -180,13 +220,41 @@ public class MainLayoutController implements Initializable {
                 //        (dx / box.getDepth() * 360) * (Math.PI / 180));
 
 
-                updateSliderValues();
+                orientationDirty = true;
+            } else if (mouseEvent.isSecondaryButtonDown()) {
+                // the accelerometer feels the device following the mouse
+                moveX -= dx;
+                moveZ += dy;
+                moveDirty = true;
             }
             mousePosX = mouseEvent.getSceneX();
             mousePosY = mouseEvent.getSceneY();
         });
     }
 
+    /**
+     * Logs the pitch derived from a drag, only built if FINE is enabled.
+     */
+    private static void logPitch(int quadrant, double temp, int pitch) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Temp " + quadrant + ": " + temp + ", pitchValue: " + pitch);
+        }
+    }
+
+    /**
+     * Logs the angle of a drag that leaves the pitch alone, only built if
+     * FINE is enabled.
+     */
+    private static void logTemp(int quadrant, double temp) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Temp " + quadrant + ": " + temp);
+        }
+    }
+
+    /**
+     * Normalizes the angles and hands them to the engine in one command.
+     * Called once per frame by sensorRefreshTimer while the input changed.
+     */
     private void updateSliderValues() {
         // Restrict pitch value to -90 to +90
         if (pitchValue < -90) {
@@ -221,8 +289,8 @@ public class MainLayoutController implements Initializable {
 //            rollValue -= 360;
 //        }
 
-        updateMagneticFieldData();
-        updateAccelerometerData();
+        // queued with its time, so the engine interpolates between events
+        engine.submitOrientation(yawValue, pitchValue, rollValue);
 
         //rotateX.setAngle(pitchValue);
         rotateZ.setAngle(yawValue);
@@ -255,94 +323,53 @@ public class MainLayoutController implements Initializable {
         rollLabel.setText(rollValue + "");
     }
 
+    /**
+     * Shows the latest read-outs. Called on the FX thread once per frame.
+     */
     private void updateSensorValues() {
-        while(true) {
-            gyroscopeModel.refreshAngularSpeed(10, pitchValue, yawValue, rollValue);
-
-            accelerometerModel.updateSensorReadoutValues();
-            gyroscopeModel.updateSensorReadoutValues();
-            magneticFieldModel.updateSensorReadoutValues();
-
-            Platform.runLater(new Runnable() {
-                @Override
-                public void run() {
-                    gyroscopeLabel.setText(TWO_DECIMAL_FORMAT.format(gyroscopeModel.getReadGyroscopePitch())
-                            + ", "
-                            + TWO_DECIMAL_FORMAT.format(gyroscopeModel.getReadGyroscopeYaw())
-                            + ", "
-                            + TWO_DECIMAL_FORMAT.format(gyroscopeModel.getReadGyroscopeRoll()));
-
-                    magneticFieldLabel.setText(TWO_DECIMAL_FORMAT.format(magneticFieldModel.getReadCompassX())
-                            + ", "
-                            + TWO_DECIMAL_FORMAT.format(magneticFieldModel.getReadCompassY())
-                            + ", "
-                            + TWO_DECIMAL_FORMAT.format(magneticFieldModel.getReadCompassZ()));
-                    
-                    accelerometerLabel.setText(TWO_DECIMAL_FORMAT.format(accelerometerModel.getReadAccelerometerX())
-                            + ", "
-                            + TWO_DECIMAL_FORMAT.format(accelerometerModel.getReadAccelerometerY())
-                            + ", "
-                            + TWO_DECIMAL_FORMAT.format(accelerometerModel.getReadAccelerometerZ()));
-                }
-            });
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException ie) {
-                ie.printStackTrace();
-            }
-        }
+        gyroscopeSensorLabel.refresh();
+        magneticFieldSensorLabel.refresh();
+        accelerometerSensorLabel.refresh();
     }
 
-    private void updateMagneticFieldData() {
-
-        Vector magneticFieldVector = new Vector(MAGNETIC_EAST, MAGNETIC_NORTH, -MAGNETIC_VERTICAL);
-        magneticFieldVector.scale(0.001); // convert from nT (nano-Tesla) to uT
-        // (micro-Tesla)
-
-        magneticFieldVector.reverserollpitchyaw(rollValue, pitchValue, yawValue);
-        magneticFieldModel.setCompass(magneticFieldVector);
-    }
-
-    private void updateAccelerometerData() {
-
-        // get component vectors (gravity + linear_acceleration)
-        Vector gravityVec = getGravityVector();
-        Vector linearVec = getLinearAccVector(accelerometerModel);
-
-        Vector resultVec = Vector.addVectors(gravityVec, linearVec);
-
-        accelerometerModel.setXYZ(resultVec);
-
-        double limit = GRAVITY_CONSTANT * 10;
-
-        accelerometerModel.limitate(limit);
-    }
-
-    private Vector getLinearAccVector(AccelerometerModel accModel) {
-        double meterPerPixel = 1. / 3000;
-        double dt = 0.001 * 1; // from ms to s
-        double k = 500;
-        double gamma = 50;
-
-        accModel.refreshAcceleration(k, gamma, dt);
-
-        // Now calculate this into mobile phone acceleration:
-        // ! Mobile phone's acceleration is just opposite to
-        // lab frame acceleration !
-        Vector vec = new Vector(-accModel.getAx() * meterPerPixel, 0,
-                -accModel.getAz() * meterPerPixel);
-        vec.reverserollpitchyaw(rollValue, pitchValue, yawValue);
-
-        return vec;
-    }
-
-    private Vector getGravityVector() {
-        // apply orientation
-        // we reverse roll, pitch, and yawDegree,
-        // as this is how the mobile phone sees the coordinate system.
-        Vector gravityVec = new Vector(0, 0, GRAVITY_CONSTANT);
-        gravityVec.reverserollpitchyaw(rollValue, pitchValue, yawValue);
+    /**
+     * Label showing three read-out values of a sensor. The text is only
+     * rebuilt when a new read-out changed one of the shown values.
+     */
+    private static class SensorLabel {
+        private final Label label;
+        private final SensorReadout readout;
+        private final int[] order;
+        private final SensorSample sample = new SensorSample();
+        private final double[] shown = new double[3];
+        private long shownSequence = -1;
+
+        SensorLabel(Label label, SensorModel model, int... order) {
+            this.label = label;
+            this.readout = model.getReadout();
+            this.order = order;
+        }
 
-        return gravityVec;
+        void refresh() {
+            if (readout.getSequence() == shownSequence) {
+                return;
+            }
+            boolean changed = shownSequence < 0;
+            shownSequence = readout.read(sample);
+            for (int i = 0; i < shown.length; i++) {
+                double value = sample.get(order[i]);
+                if (value != shown[i]) {
+                    shown[i] = value;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                label.setText(TWO_DECIMAL_FORMAT.format(shown[0])
+                        + ", "
+                        + TWO_DECIMAL_FORMAT.format(shown[1])
+                        + ", "
+                        + TWO_DECIMAL_FORMAT.format(shown[2]));
+            }
+        }
     }
 }
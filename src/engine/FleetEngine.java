@@ -0,0 +1,636 @@
+package engine;
+
+import model.AccelerometerModel;
+import model.GyroscopeModel;
+import model.MagneticFieldGrid;
+import model.NoiseModel;
+import model.SensorErrorModel;
+import model.SensorModel;
+import utils.Clock;
+import utils.SimulatedClock;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates many devices at once.
+ *
+ * The state that AccelerometerModel, GyroscopeModel and MagneticFieldModel
+ * keep in fields is held here in one primitive array per field, indexed by
+ * device (struct of arrays). A tick advances all devices in parallel chunks
+ * on a ForkJoinPool.
+ *
+ * The fleet models a subset of SimulationEngine: the accelerometer,
+ * gyroscope and magnetic field, without the derived sensors; the gyroscope
+ * in GyroscopeModel.Mode.EULER_RATE only, through GyroscopeModel.eulerRate();
+ * the block average as the only read-out filter; noise and calibration
+ * errors; and the spring-mass physics of the accelerometer with the default
+ * spring and substep and the semi-implicit Euler integrator, advanced by the
+ * clock time between ticks through AccelerometerModel.substeps() and
+ * springStep(). A tick computes the same numbers as a SimulationEngine per
+ * device would for the sensors and stages the fleet has.
+ *
+ * setOrientation() and setMove() only store the new input; the rotation and
+ * the sensor input vectors are recomputed by the next tick, in parallel.
+ * None of the methods may be called while a tick is running.
+ */
+public class FleetEngine {
+
+    /** Devices per task; smaller ranges are not split any further. */
+    private static final int CHUNK = 256;
+
+    private static final double METER_PER_PIXEL = 1. / 3000;
+    // defaults of AccelerometerModel, mass 1
+    private static final double SPRING_K = 500;
+    private static final double SPRING_GAMMA = 50;
+    private static final double ACCELEROMETER_LIMIT = SimulationEngine.GRAVITY_CONSTANT * 10;
+
+    private final int mDevices;
+    private final ForkJoinPool mPool;
+    private Clock mClock;
+    private long mTickNanos;
+    private long mTickCount;
+    /** Clock time up to which the physics has been advanced. */
+    private long mPhysicsTime;
+
+    // Input orientation in degrees
+    private final double[] mYaw;
+    private final double[] mPitch;
+    private final double[] mRoll;
+    /** Whether the orientation changed since the last tick. */
+    private final boolean[] mDirty;
+
+    // Accelerometer internal state
+    private final double[] mAccelX;
+    private final double[] mAccelY;
+    private final double[] mAccelZ;
+    // spring-mass physics
+    private final double[] mAccX;
+    private final double[] mAccZ;
+    private final double[] mVX;
+    private final double[] mVZ;
+    private final double[] mAX;
+    private final double[] mAZ;
+    private final double[] mMoveX;
+    private final double[] mMoveZ;
+    private final double[] mAccumulator;
+
+    // Gyroscope internal state
+    private final double[] mOldYaw;
+    private final double[] mOldPitch;
+    private final double[] mOldRoll;
+    private final double[] mSpeedYaw;
+    private final double[] mSpeedPitch;
+    private final double[] mSpeedRoll;
+
+    // Earth's field at each device in nT
+    private final double[] mFieldNorth;
+    private final double[] mFieldEast;
+    private final double[] mFieldDown;
+
+    // Magnetic field internal state
+    private final double[] mCompassX;
+    private final double[] mCompassY;
+    private final double[] mCompassZ;
+
+    /** Scratch arrays of one device, reused by each pool thread. */
+    private final ThreadLocal<Scratch> mScratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Accelerometer, gyroscope and magnetic field read-outs, in the order
+     * of SensorModel.getReadValues(), so noise and error models see the same
+     * axes as in a SimulationEngine.
+     */
+    private final SensorArrays mAccelerometer;
+    private final SensorArrays mGyroscope;
+    private final SensorArrays mMagneticField;
+
+    public FleetEngine(int devices) {
+        this(devices, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param devices Number of simulated devices.
+     * @param pool Pool the ticks run on.
+     */
+    public FleetEngine(int devices, ForkJoinPool pool) {
+        mDevices = devices;
+        mPool = pool;
+        mClock = Clock.WALL;
+        mTickNanos = SimulationEngine.DEFAULT_TICK_NANOS;
+
+        mYaw = new double[devices];
+        mPitch = new double[devices];
+        mRoll = new double[devices];
+        mDirty = new boolean[devices];
+
+        mAccelX = new double[devices];
+        mAccelY = new double[devices];
+        mAccelZ = new double[devices];
+        mAccX = new double[devices];
+        mAccZ = new double[devices];
+        mVX = new double[devices];
+        mVZ = new double[devices];
+        mAX = new double[devices];
+        mAZ = new double[devices];
+        mMoveX = new double[devices];
+        mMoveZ = new double[devices];
+        mAccumulator = new double[devices];
+
+        mOldYaw = new double[devices];
+        mOldPitch = new double[devices];
+        mOldRoll = new double[devices];
+        mSpeedYaw = new double[devices];
+        mSpeedPitch = new double[devices];
+        mSpeedRoll = new double[devices];
+
+        mFieldNorth = new double[devices];
+        mFieldEast = new double[devices];
+        mFieldDown = new double[devices];
+        Arrays.fill(mFieldNorth, SimulationEngine.MAGNETIC_NORTH);
+        Arrays.fill(mFieldEast, SimulationEngine.MAGNETIC_EAST);
+        Arrays.fill(mFieldDown, SimulationEngine.MAGNETIC_VERTICAL);
+
+        mCompassX = new double[devices];
+        mCompassY = new double[devices];
+        mCompassZ = new double[devices];
+
+        mAccelerometer = new SensorArrays(devices);
+        mGyroscope = new SensorArrays(devices);
+        mMagneticField = new SensorArrays(devices);
+
+        Arrays.fill(mDirty, true);
+        mPhysicsTime = mClock.nanoTime();
+    }
+
+    private static class Scratch {
+        final double[] mRotation = new double[9];
+        final double[] mValues = new double[3];
+    }
+
+    /**
+     * Read-out state of one sensor for all devices.
+     */
+    private static class SensorArrays {
+        final double[] mReadX;
+        final double[] mReadY;
+        final double[] mReadZ;
+        final double[] mPartialX;
+        final double[] mPartialY;
+        final double[] mPartialZ;
+        final int[] mPartialN;
+        final long[] mNextUpdate;
+        long mUpdatePeriodNanos;
+        boolean mAverage;
+        /** Noise per device, null until one is set. */
+        NoiseModel[] mNoise;
+        /** Calibration errors per device, null until one is set. */
+        SensorErrorModel[] mErrors;
+
+        SensorArrays(int devices) {
+            mReadX = new double[devices];
+            mReadY = new double[devices];
+            mReadZ = new double[devices];
+            mPartialX = new double[devices];
+            mPartialY = new double[devices];
+            mPartialZ = new double[devices];
+            mPartialN = new int[devices];
+            mNextUpdate = new long[devices];
+        }
+
+        /**
+         * Same scheduling as SensorModel.isReadoutDue().
+         */
+        boolean isReadoutDue(int i, long currentTime) {
+            if (currentTime < mNextUpdate[i]) {
+                return false;
+            }
+            mNextUpdate[i] += mUpdatePeriodNanos;
+            if (mNextUpdate[i] < currentTime) {
+                mNextUpdate[i] = currentTime;
+            }
+            return true;
+        }
+
+        /**
+         * Adds a sample and forms the read-out if it is due, like
+         * SensorModel.updateSensorReadoutValues().
+         *
+         * @param values Scratch array of three values.
+         */
+        void update(int i, long currentTime, double x, double y, double z, double[] values) {
+            if (mAverage) {
+                mPartialX[i] += x;
+                mPartialY[i] += y;
+                mPartialZ[i] += z;
+                mPartialN[i]++;
+            }
+            if (isReadoutDue(i, currentTime)) {
+                if (mAverage) {
+                    int n = mPartialN[i];
+                    mReadX[i] = mPartialX[i] / n;
+                    mReadY[i] = mPartialY[i] / n;
+                    mReadZ[i] = mPartialZ[i] / n;
+                    mPartialX[i] = 0;
+                    mPartialY[i] = 0;
+                    mPartialZ[i] = 0;
+                    mPartialN[i] = 0;
+                } else {
+                    mReadX[i] = x;
+                    mReadY[i] = y;
+                    mReadZ[i] = z;
+                }
+                if (mNoise != null && mNoise[i] != null) {
+                    values[0] = mReadX[i];
+                    values[1] = mReadY[i];
+                    values[2] = mReadZ[i];
+                    mNoise[i].apply(values, currentTime);
+                    mReadX[i] = values[0];
+                    mReadY[i] = values[1];
+                    mReadZ[i] = values[2];
+                }
+                if (mErrors != null && mErrors[i] != null) {
+                    mErrors[i].apply(mReadX, mReadY, mReadZ, i, i + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances all devices by one step.
+     */
+    public void tick() {
+        long now = mClock.nanoTime();
+        long elapsed = now - mPhysicsTime;
+        mPhysicsTime = now;
+        mPool.invoke(new TickAction(0, mDevices, now, elapsed > 0 ? elapsed * 1e-9 : 0));
+        mTickCount++;
+    }
+
+    /**
+     * Runs ticks until the simulated clock has moved forward by the given
+     * amount, see SimulationEngine.advance().
+     */
+    public void advance(long nanos) {
+        if (!(mClock instanceof SimulatedClock)) {
+            throw new IllegalStateException("advance() requires a SimulatedClock");
+        }
+        if (mTickNanos <= 0) {
+            throw new IllegalStateException("advance() requires a tick period");
+        }
+        SimulatedClock clock = (SimulatedClock) mClock;
+        long end = clock.nanoTime() + nanos;
+        while (clock.nanoTime() < end) {
+            tick();
+            clock.advance(mTickNanos);
+        }
+    }
+
+    private class TickAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mFrom;
+        private final int mTo;
+        private final long mNow;
+        /** Simulated seconds since the last tick. */
+        private final double mElapsed;
+
+        TickAction(int from, int to, long now, double elapsed) {
+            mFrom = from;
+            mTo = to;
+            mNow = now;
+            mElapsed = elapsed;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > CHUNK) {
+                int mid = (mFrom + mTo) >>> 1;
+                invokeAll(new TickAction(mFrom, mid, mNow, mElapsed),
+                        new TickAction(mid, mTo, mNow, mElapsed));
+                return;
+            }
+            Scratch scratch = mScratch.get();
+            double[] values = scratch.mValues;
+            for (int i = mFrom; i < mTo; i++) {
+                if (mElapsed > 0 && advancePhysics(i, mElapsed)) {
+                    mDirty[i] = true;
+                }
+                if (mDirty[i]) {
+                    mDirty[i] = false;
+                    updateInputs(i, scratch.mRotation);
+                }
+                refreshAngularSpeed(i);
+                mAccelerometer.update(i, mNow, mAccelX[i], mAccelY[i], mAccelZ[i], values);
+                mGyroscope.update(i, mNow, mSpeedPitch[i], mSpeedRoll[i], mSpeedYaw[i], values);
+                mMagneticField.update(i, mNow, mCompassX[i], mCompassY[i], mCompassZ[i], values);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the sensor inputs of a device for its orientation, as
+     * SimulationEngine.setOrientation() does.
+     */
+    private void updateInputs(int i, double[] m) {
+        reverseRollPitchYawMatrix(mRoll[i], mPitch[i], mYaw[i], m);
+
+        // magnetic field in uT
+        double ex = mFieldEast[i] * 0.001;
+        double ny = mFieldNorth[i] * 0.001;
+        double vz = -mFieldDown[i] * 0.001;
+        mCompassX[i] = m[0] * ex + m[1] * ny + m[2] * vz;
+        mCompassY[i] = m[3] * ex + m[4] * ny + m[5] * vz;
+        mCompassZ[i] = m[6] * ex + m[7] * ny + m[8] * vz;
+
+        // gravity
+        double g = SimulationEngine.GRAVITY_CONSTANT;
+        double gx = m[0] * 0 + m[1] * 0 + m[2] * g;
+        double gy = m[3] * 0 + m[4] * 0 + m[5] * g;
+        double gz = m[6] * 0 + m[7] * 0 + m[8] * g;
+
+        // linear acceleration
+        double lx = -mAX[i] * METER_PER_PIXEL;
+        double lz = -mAZ[i] * METER_PER_PIXEL;
+        gx += m[0] * lx + m[1] * 0 + m[2] * lz;
+        gy += m[3] * lx + m[4] * 0 + m[5] * lz;
+        gz += m[6] * lx + m[7] * 0 + m[8] * lz;
+
+        mAccelX[i] = Math.max(-ACCELEROMETER_LIMIT, Math.min(ACCELEROMETER_LIMIT, gx));
+        mAccelY[i] = Math.max(-ACCELEROMETER_LIMIT, Math.min(ACCELEROMETER_LIMIT, gy));
+        mAccelZ[i] = Math.max(-ACCELEROMETER_LIMIT, Math.min(ACCELEROMETER_LIMIT, gz));
+    }
+
+    /**
+     * Same arithmetic as Quaternion.setReverseRollPitchYaw() followed by
+     * Quaternion.toRotationMatrix(), into a row-major array.
+     */
+    private static void reverseRollPitchYawMatrix(double roll, double pitch, double yaw, double[] m) {
+        double halfRoll = Math.toRadians(roll) / 2;
+        double halfPitch = Math.toRadians(pitch) / 2;
+        double halfYaw = Math.toRadians(yaw) / 2;
+        double cr = Math.cos(halfRoll);
+        double sr = Math.sin(halfRoll);
+        double cp = Math.cos(halfPitch);
+        double sp = Math.sin(halfPitch);
+        double cy = Math.cos(halfYaw);
+        double sy = Math.sin(halfYaw);
+
+        double w = cr * cp * cy - sr * sp * sy;
+        double x = cr * sp * cy - sr * cp * sy;
+        double y = -sr * cp * cy - cr * sp * sy;
+        double z = cr * cp * sy + sr * sp * cy;
+
+        double xx = x * x;
+        double yy = y * y;
+        double zz = z * z;
+        double xy = x * y;
+        double xz = x * z;
+        double yz = y * z;
+        double wx = w * x;
+        double wy = w * y;
+        double wz = w * z;
+
+        m[0] = 1 - 2 * (yy + zz);
+        m[1] = 2 * (xy - wz);
+        m[2] = 2 * (xz + wy);
+        m[3] = 2 * (xy + wz);
+        m[4] = 1 - 2 * (xx + zz);
+        m[5] = 2 * (yz - wx);
+        m[6] = 2 * (xz - wy);
+        m[7] = 2 * (yz + wx);
+        m[8] = 1 - 2 * (xx + yy);
+    }
+
+    /**
+     * AccelerometerModel.advance() for one device, skipped while its test
+     * particle is at rest as in SimulationEngine.
+     *
+     * @return Whether the particle moved, so the acceleration changed.
+     */
+    private boolean advancePhysics(int i, double seconds) {
+        if (AccelerometerModel.isAtRest(mAccX[i], mVX[i], mAX[i], mMoveX[i])
+                && AccelerometerModel.isAtRest(mAccZ[i], mVZ[i], mAZ[i], mMoveZ[i])) {
+            return false;
+        }
+        double dt = AccelerometerModel.DEFAULT_SUBSTEP;
+        int substeps = AccelerometerModel.substeps(mAccumulator, i, seconds, dt);
+        for (int n = 0; n < substeps; n++) {
+            mAX[i] = AccelerometerModel.springStep(mAccX, mVX, i, mMoveX[i], SPRING_K, SPRING_GAMMA, dt);
+            mAZ[i] = AccelerometerModel.springStep(mAccZ, mVZ, i, mMoveZ[i], SPRING_K, SPRING_GAMMA, dt);
+        }
+        return substeps > 0;
+    }
+
+    /**
+     * GyroscopeModel.refreshAngularSpeed() for one device.
+     */
+    private void refreshAngularSpeed(int i) {
+        double dt = GyroscopeModel.EULER_RATE_DT;
+        mSpeedYaw[i] = GyroscopeModel.eulerRate(mYaw[i], mOldYaw, i, GyroscopeModel.RADIUS_YAW, dt);
+        mSpeedPitch[i] = GyroscopeModel.eulerRate(mPitch[i], mOldPitch, i, GyroscopeModel.RADIUS_PITCH, dt);
+        mSpeedRoll[i] = GyroscopeModel.eulerRate(mRoll[i], mOldRoll, i, GyroscopeModel.RADIUS_ROLL, dt);
+    }
+
+    /**
+     * Sets the input orientation of a device. Takes effect at the next tick.
+     */
+    public void setOrientation(int device, double yaw, double pitch, double roll) {
+        mYaw[device] = yaw;
+        mPitch[device] = pitch;
+        mRoll[device] = roll;
+        mDirty[device] = true;
+    }
+
+    /**
+     * Moves a device in the lab frame, as SimulationEngine.setMove() does.
+     * Its test particle follows through the spring from the next tick on.
+     *
+     * @param x Position in pixels.
+     * @param z Position in pixels.
+     */
+    public void setMove(int device, double x, double z) {
+        mMoveX[device] = x;
+        mMoveZ[device] = z;
+    }
+
+    /**
+     * Sets the Earth's magnetic field at a device. Takes effect at the next
+     * tick.
+     *
+     * @param north North component in nT.
+     * @param east East component in nT.
+     * @param down Down component in nT.
+     */
+    public void setMagneticField(int device, double north, double east, double down) {
+        mFieldNorth[device] = north;
+        mFieldEast[device] = east;
+        mFieldDown[device] = down;
+        mDirty[device] = true;
+    }
+
+    /**
+     * Places devices on the globe: sets the magnetic field of devices from
+     * to to-1 from the grid, one interpolation per device.
+     *
+     * @param latitude Geodetic latitude of device i in degrees.
+     * @param longitude Longitude of device i in degrees.
+     * @param altitude Height above the ellipsoid of device i in km.
+     */
+    public void setLocations(MagneticFieldGrid grid, double[] latitude, double[] longitude,
+                             double[] altitude, int from, int to) {
+        double[] field = new double[3];
+        for (int i = from; i < to; i++) {
+            grid.get(latitude[i], longitude[i], altitude[i], field);
+            setMagneticField(i, field[0], field[1], field[2]);
+        }
+    }
+
+    /**
+     * Sets the read-out update duration of one sensor type on all devices.
+     *
+     * @param type SensorModel.TYPE_ACCELEROMETER, TYPE_GYROSCOPE or
+     *            TYPE_MAGNETIC_FIELD.
+     * @param millis Duration in milliseconds.
+     */
+    public void setUpdateDuration(int type, long millis) {
+        sensor(type).mUpdatePeriodNanos = millis * 1000000L;
+    }
+
+    /**
+     * Sets whether read-outs of one sensor type are averaged on all devices.
+     */
+    public void setAverage(int type, boolean average) {
+        sensor(type).mAverage = average;
+    }
+
+    /**
+     * Adds typical MEMS noise, bias instability and drift to the sensors of
+     * all devices, as SimulationEngine.setNoiseSeed() does for one. Every
+     * device splits its generator off one generator and its sensors split
+     * theirs off the device's, so the same seed and inputs reproduce the
+     * read-outs of the whole fleet.
+     *
+     * @param seed Seed of the noise of the fleet.
+     */
+    public void setNoiseSeed(long seed) {
+        NoiseModel fleet = new NoiseModel(seed);
+        for (int i = 0; i < mDevices; i++) {
+            NoiseModel device = fleet.split();
+            setNoiseModel(SensorModel.TYPE_ACCELEROMETER, i,
+                    SimulationEngine.createNoise(device, SensorModel.TYPE_ACCELEROMETER));
+            setNoiseModel(SensorModel.TYPE_GYROSCOPE, i,
+                    SimulationEngine.createNoise(device, SensorModel.TYPE_GYROSCOPE));
+            setNoiseModel(SensorModel.TYPE_MAGNETIC_FIELD, i,
+                    SimulationEngine.createNoise(device, SensorModel.TYPE_MAGNETIC_FIELD));
+        }
+    }
+
+    /**
+     * Sets the noise of one sensor of one device. Unlike error models, noise
+     * models keep state and must not be shared.
+     *
+     * @param noise Noise, or null for exact read-outs.
+     */
+    public void setNoiseModel(int type, int device, NoiseModel noise) {
+        SensorArrays sensor = sensor(type);
+        if (sensor.mNoise == null) {
+            if (noise == null) {
+                return;
+            }
+            sensor.mNoise = new NoiseModel[mDevices];
+        }
+        sensor.mNoise[device] = noise;
+    }
+
+    /**
+     * Sets the calibration errors of one sensor of one device. Devices may
+     * share an error model.
+     *
+     * @param errorModel Errors, or null for an ideal sensor.
+     */
+    public void setErrorModel(int type, int device, SensorErrorModel errorModel) {
+        SensorArrays sensor = sensor(type);
+        if (sensor.mErrors == null) {
+            if (errorModel == null) {
+                return;
+            }
+            sensor.mErrors = new SensorErrorModel[mDevices];
+        }
+        sensor.mErrors[device] = errorModel;
+    }
+
+    private SensorArrays sensor(int type) {
+        switch (type) {
+            case SensorModel.TYPE_ACCELEROMETER:
+                return mAccelerometer;
+            case SensorModel.TYPE_GYROSCOPE:
+                return mGyroscope;
+            case SensorModel.TYPE_MAGNETIC_FIELD:
+                return mMagneticField;
+            default:
+                throw new IllegalArgumentException("Unsupported sensor type: " + type);
+        }
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    public void setClock(Clock clock) {
+        mClock = clock;
+        mPhysicsTime = clock.nanoTime();
+        Arrays.fill(mAccelerometer.mNextUpdate, 0);
+        Arrays.fill(mGyroscope.mNextUpdate, 0);
+        Arrays.fill(mMagneticField.mNextUpdate, 0);
+    }
+
+    public void setTickNanos(long tickNanos) {
+        mTickNanos = tickNanos;
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    public int getDeviceCount() {
+        return mDevices;
+    }
+
+    public double getReadAccelerometerX(int device) {
+        return mAccelerometer.mReadX[device];
+    }
+
+    public double getReadAccelerometerY(int device) {
+        return mAccelerometer.mReadY[device];
+    }
+
+    public double getReadAccelerometerZ(int device) {
+        return mAccelerometer.mReadZ[device];
+    }
+
+    public double getReadGyroscopeYaw(int device) {
+        return mGyroscope.mReadZ[device];
+    }
+
+    public double getReadGyroscopePitch(int device) {
+        return mGyroscope.mReadX[device];
+    }
+
+    public double getReadGyroscopeRoll(int device) {
+        return mGyroscope.mReadY[device];
+    }
+
+    public double getReadCompassX(int device) {
+        return mMagneticField.mReadX[device];
+    }
+
+    public double getReadCompassY(int device) {
+        return mMagneticField.mReadY[device];
+    }
+
+    public double getReadCompassZ(int device) {
+        return mMagneticField.mReadZ[device];
+    }
+}
@@ -0,0 +1,266 @@
+package engine;
+
+import utils.Quaternion;
+import utils.RotationCache;
+import utils.RotationMatrix;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-stamped orientation commands from one producer thread, such as the
+ * user interface, to one consumer thread, the engine.
+ *
+ * The commands are kept in a ring buffer of primitive arrays, so offering
+ * one takes no lock and allocates nothing. The producer publishes a command
+ * by a volatile store of its write index after filling the slot, so a
+ * consumer that checks hasPending() before parking cannot miss it. The
+ * consumer frees slots by a lazySet() of its read index. Neither side ever
+ * waits for the other.
+ *
+ * The consumer does not jump to the newest command. sample() renders the
+ * orientation at a time a fixed interpolation delay in the past and slerps
+ * between the two commands around that time, so input at a few tens of
+ * hertz gives a smooth orientation at any tick rate. The delay should be
+ * about one input period; a command that arrives after a longer pause is
+ * approached over one delay instead of over the whole pause.
+ *
+ * Each command keeps its yaw, pitch and roll next to its quaternion, and
+ * sample() interpolates them along with it. Angles extracted back from the
+ * quaternion would be ambiguous at a pitch of -90 or 90 degrees.
+ */
+public class OrientationInputQueue {
+
+    /** Default interpolation delay, a bit more than one 60 Hz frame. */
+    public static final long DEFAULT_DELAY_NANOS = 20000000L;
+
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final double[] mW;
+    private final double[] mX;
+    private final double[] mY;
+    private final double[] mZ;
+    // commanded angles in degrees
+    private final double[] mYaw;
+    private final double[] mPitch;
+    private final double[] mRoll;
+
+    /** Index of the next command to write, written by the producer only. */
+    private final AtomicLong mTail = new AtomicLong();
+    /** Index of the next command to read, written by the consumer only. */
+    private final AtomicLong mHead = new AtomicLong();
+    /** Producer's copy of mHead, refreshed only when the ring looks full. */
+    private long mHeadCache;
+    // Conversion of offered angles, used by the producer only
+    private final Quaternion mScratch = new Quaternion();
+    private final RotationMatrix mScratchMatrix = new RotationMatrix();
+    private RotationCache mRotationCache;
+
+    private volatile long mDelayNanos = DEFAULT_DELAY_NANOS;
+
+    // Consumer state: the last command at or before the render time
+    private final Quaternion mFrom = new Quaternion();
+    private final Quaternion mTo = new Quaternion();
+    private long mFromTimestamp;
+    private boolean mHasFrom;
+    private double mFromYaw;
+    private double mFromPitch;
+    private double mFromRoll;
+
+    /**
+     * @param capacity Commands that fit between two sample() calls, rounded
+     *            up to a power of two.
+     */
+    public OrientationInputQueue(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity below 2: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mMask = size - 1;
+        mTimestamps = new long[size];
+        mW = new double[size];
+        mX = new double[size];
+        mY = new double[size];
+        mZ = new double[size];
+        mYaw = new double[size];
+        mPitch = new double[size];
+        mRoll = new double[size];
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Offers an orientation. Only to be called by the producer thread.
+     *
+     * @param yaw yaw in degrees.
+     * @param pitch pitch in degrees.
+     * @param roll roll in degrees.
+     * @param timestamp Time of the input in nanoseconds of the consumer's
+     *            clock; must not decrease.
+     * @return false if the queue is full and the orientation was dropped.
+     */
+    public boolean offer(double yaw, double pitch, double roll, long timestamp) {
+        long tail = mTail.get();
+        if (tail - mHeadCache > mMask) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache > mMask) {
+                return false;
+            }
+        }
+        if (mRotationCache != null && yaw == (int) yaw && pitch == (int) pitch
+                && roll == (int) roll && pitch >= -90 && pitch <= 90) {
+            mRotationCache.get((int) roll, (int) pitch, (int) yaw, mScratch, mScratchMatrix);
+        } else {
+            mScratch.setReverseRollPitchYaw(roll, pitch, yaw);
+        }
+        int slot = (int) tail & mMask;
+        mTimestamps[slot] = timestamp;
+        mW[slot] = mScratch.w;
+        mX[slot] = mScratch.x;
+        mY[slot] = mScratch.y;
+        mZ[slot] = mScratch.z;
+        mYaw[slot] = yaw;
+        mPitch[slot] = pitch;
+        mRoll[slot] = roll;
+        // publish the slot after its contents; a volatile store, so the
+        // producer's following check whether the consumer is parked cannot
+        // be ordered before it
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * Sets a cache for the rotations of whole-degree commands. Only to be
+     * called by the producer thread; the cache is not thread-safe, so it
+     * must not also be given to the engine.
+     *
+     * @param rotationCache Cache, or null to compute every rotation.
+     */
+    public void setRotationCache(RotationCache rotationCache) {
+        mRotationCache = rotationCache;
+    }
+
+    public RotationCache getRotationCache() {
+        return mRotationCache;
+    }
+
+    /**
+     * @return Whether commands are waiting, i.e. sample() may still change
+     *         the orientation. Only to be called by the consumer thread.
+     */
+    public boolean hasPending() {
+        return mTail.get() != mHead.get();
+    }
+
+    /**
+     * Computes the orientation at now minus the interpolation delay. Only to
+     * be called by the consumer thread.
+     *
+     * @param now Current time in nanoseconds.
+     * @param orientation The current orientation, which the first command
+     *            is approached from; set to the sampled orientation.
+     * @param angles The current yaw, pitch and roll of the orientation in
+     *            degrees; set to the sampled ones along with it.
+     * @return Whether the orientation was set.
+     */
+    public boolean sample(long now, Quaternion orientation, double[] angles) {
+        long renderTime = now - mDelayNanos;
+        long head = mHead.get();
+        long tail = mTail.get();
+        boolean changed = false;
+
+        // consume the commands that are due
+        while (head != tail && mTimestamps[(int) head & mMask] <= renderTime) {
+            int slot = (int) head & mMask;
+            read(slot, mFrom);
+            mFromYaw = mYaw[slot];
+            mFromPitch = mPitch[slot];
+            mFromRoll = mRoll[slot];
+            mFromTimestamp = mTimestamps[slot];
+            mHasFrom = true;
+            changed = true;
+            head++;
+        }
+        mHead.lazySet(head);
+
+        if (head == tail) {
+            if (changed) {
+                orientation.set(mFrom);
+                angles[0] = mFromYaw;
+                angles[1] = mFromPitch;
+                angles[2] = mFromRoll;
+            }
+            return changed;
+        }
+
+        // interpolate towards the next command
+        if (!mHasFrom) {
+            mFrom.set(orientation);
+            mFromYaw = angles[0];
+            mFromPitch = angles[1];
+            mFromRoll = angles[2];
+            mFromTimestamp = Long.MIN_VALUE;
+            mHasFrom = true;
+        }
+        int slot = (int) head & mMask;
+        long toTimestamp = mTimestamps[slot];
+        long fromTimestamp = Math.max(mFromTimestamp, toTimestamp - mDelayNanos);
+        if (renderTime <= fromTimestamp) {
+            if (changed) {
+                orientation.set(mFrom);
+                angles[0] = mFromYaw;
+                angles[1] = mFromPitch;
+                angles[2] = mFromRoll;
+            }
+            return changed;
+        }
+        read(slot, mTo);
+        double t = (double) (renderTime - fromTimestamp) / (toTimestamp - fromTimestamp);
+        orientation.slerp(mFrom, mTo, t);
+        // yaw and roll the shorter way round, like the slerp
+        angles[0] = interpolateAngle(mFromYaw, mYaw[slot], t);
+        angles[1] = mFromPitch + (mPitch[slot] - mFromPitch) * t;
+        angles[2] = interpolateAngle(mFromRoll, mRoll[slot], t);
+        return true;
+    }
+
+    /**
+     * @return The angle a fraction t of the shorter way from one angle to
+     *         the other, in degrees from 0 to 360.
+     */
+    private static double interpolateAngle(double from, double to, double t) {
+        double angle = from + Math.IEEEremainder(to - from, 360) * t;
+        angle -= 360 * Math.floor(angle / 360);
+        return angle;
+    }
+
+    /**
+     * Forgets the last consumed command, so the next one is approached from
+     * the orientation passed to sample(). Only to be called by the consumer
+     * thread, e.g. after the orientation was set by other means.
+     */
+    public void restart() {
+        mHasFrom = false;
+    }
+
+    private void read(int slot, Quaternion q) {
+        q.set(mW[slot], mX[slot], mY[slot], mZ[slot]);
+    }
+
+    public long getDelayNanos() {
+        return mDelayNanos;
+    }
+
+    /**
+     * @param delayNanos How far in the past sample() renders, about one
+     *            input period; 0 follows the newest command without
+     *            interpolation.
+     */
+    public void setDelayNanos(long delayNanos) {
+        if (delayNanos < 0) {
+            throw new IllegalArgumentException("Negative delay: " + delayNanos);
+        }
+        mDelayNanos = delayNanos;
+    }
+}
@@ -0,0 +1,279 @@
+package engine;
+
+import model.SensorModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Wakes sensors at their update deadlines.
+ *
+ * Every sensor with an update period is kept in a binary heap ordered by its
+ * next deadline, so finding the next sensor to update is O(1) and updating it
+ * O(log n), and sensors that are not due cost nothing. Periods are in
+ * nanoseconds and may be far shorter than a simulation step. Sensors with a
+ * period of 0 (SENSOR_DELAY_FASTEST) are updated once per simulation step.
+ *
+ * A sensor that falls behind skips the deadlines it missed and continues one
+ * period after the late update; how late each update ran is kept in its
+ * Stats.
+ *
+ * The scheduler is not thread-safe; the engine uses it from one thread.
+ */
+public class SensorScheduler {
+
+    /**
+     * Scheduling lag of one sensor: how long after its deadline each update
+     * ran.
+     */
+    public static class Stats {
+        private long mUpdates;
+        private long mLastLagNanos;
+        private long mMaxLagNanos;
+        private long mTotalLagNanos;
+
+        void record(long lagNanos) {
+            mUpdates++;
+            mLastLagNanos = lagNanos;
+            mTotalLagNanos += lagNanos;
+            if (lagNanos > mMaxLagNanos) {
+                mMaxLagNanos = lagNanos;
+            }
+        }
+
+        /**
+         * @return Number of updates run by the scheduler.
+         */
+        public long getUpdates() {
+            return mUpdates;
+        }
+
+        public long getLastLagNanos() {
+            return mLastLagNanos;
+        }
+
+        public long getMaxLagNanos() {
+            return mMaxLagNanos;
+        }
+
+        public double getMeanLagNanos() {
+            return mUpdates == 0 ? 0 : (double) mTotalLagNanos / mUpdates;
+        }
+
+        public void reset() {
+            mUpdates = 0;
+            mLastLagNanos = 0;
+            mMaxLagNanos = 0;
+            mTotalLagNanos = 0;
+        }
+    }
+
+    private static class Entry {
+        final SensorModel mSensor;
+        final Stats mStats = new Stats();
+        /** Period the deadline was computed with. */
+        long mPeriod;
+        long mDeadline;
+        /** Position in the heap, or -1 if updated every step. */
+        int mHeapIndex = -1;
+
+        Entry(SensorModel sensor) {
+            mSensor = sensor;
+        }
+    }
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    private Entry[] mHeap = new Entry[4];
+    private int mSize;
+    /** Entries taken from the heap by runDue(), reinserted afterwards. */
+    private Entry[] mDue = new Entry[4];
+
+    /**
+     * Adds a sensor. Its first update is due at once.
+     *
+     * @param sensor Sensor to update.
+     * @param now Current time in nanoseconds.
+     */
+    public void add(SensorModel sensor, long now) {
+        Entry entry = new Entry(sensor);
+        mEntries.add(entry);
+        schedule(entry, now);
+    }
+
+    /**
+     * Makes all sensors due at once, e.g. after the clock was replaced.
+     *
+     * @param now Current time in nanoseconds.
+     */
+    public void reset(long now) {
+        mSize = 0;
+        for (Entry entry : mEntries) {
+            entry.mHeapIndex = -1;
+            schedule(entry, now);
+        }
+    }
+
+    private void schedule(Entry entry, long deadline) {
+        entry.mPeriod = entry.mSensor.getUpdatePeriodNanos();
+        entry.mDeadline = deadline;
+        if (entry.mPeriod > 0) {
+            push(entry);
+        }
+    }
+
+    /**
+     * @return The earliest deadline, or Long.MAX_VALUE if no sensor has an
+     *         update period.
+     */
+    public long nextDeadline() {
+        return mSize == 0 ? Long.MAX_VALUE : mHeap[0].mDeadline;
+    }
+
+    /**
+     * Called once per simulation step: updates the sensors without a period
+     * and picks up changed update periods.
+     *
+     * @param now Current time in nanoseconds.
+     */
+    public void step(long now) {
+        checkPeriods(now);
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.mPeriod == 0) {
+                entry.mSensor.updateReadout(now);
+                entry.mStats.record(0);
+            }
+        }
+    }
+
+    /**
+     * Reschedules the sensors whose update period has changed. A new period
+     * starts with an update due at once. Called by step().
+     *
+     * @param now Current time in nanoseconds.
+     */
+    public void checkPeriods(long now) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.mSensor.getUpdatePeriodNanos() != entry.mPeriod) {
+                if (entry.mHeapIndex >= 0) {
+                    remove(entry);
+                }
+                schedule(entry, now);
+            }
+        }
+    }
+
+    /**
+     * Updates every sensor whose deadline has been reached, once.
+     *
+     * @param now Current time in nanoseconds.
+     * @return Number of sensors updated.
+     */
+    public int runDue(long now) {
+        int due = 0;
+        while (mSize > 0 && mHeap[0].mDeadline <= now) {
+            Entry entry = pop();
+            entry.mSensor.updateReadout(now);
+            entry.mStats.record(now - entry.mDeadline);
+
+            long next = entry.mDeadline + entry.mPeriod;
+            if (next <= now) {
+                // Don't lag too much behind: skip the missed deadlines.
+                next = now + entry.mPeriod;
+            }
+            entry.mDeadline = next;
+            if (due == mDue.length) {
+                mDue = Arrays.copyOf(mDue, due * 2);
+            }
+            mDue[due++] = entry;
+        }
+        for (int i = 0; i < due; i++) {
+            push(mDue[i]);
+            mDue[i] = null;
+        }
+        return due;
+    }
+
+    /**
+     * @return Lag statistics of the sensor, or null if it was not added.
+     */
+    public Stats getStats(SensorModel sensor) {
+        for (Entry entry : mEntries) {
+            if (entry.mSensor == sensor) {
+                return entry.mStats;
+            }
+        }
+        return null;
+    }
+
+    private void push(Entry entry) {
+        if (mSize == mHeap.length) {
+            mHeap = Arrays.copyOf(mHeap, mSize * 2);
+        }
+        mHeap[mSize] = entry;
+        entry.mHeapIndex = mSize;
+        siftUp(mSize++);
+    }
+
+    private Entry pop() {
+        Entry top = mHeap[0];
+        removeAt(0);
+        return top;
+    }
+
+    private void remove(Entry entry) {
+        removeAt(entry.mHeapIndex);
+    }
+
+    private void removeAt(int index) {
+        Entry removed = mHeap[index];
+        removed.mHeapIndex = -1;
+        Entry last = mHeap[--mSize];
+        mHeap[mSize] = null;
+        if (index < mSize) {
+            mHeap[index] = last;
+            last.mHeapIndex = index;
+            siftDown(index);
+            siftUp(last.mHeapIndex);
+        }
+    }
+
+    private void siftUp(int index) {
+        Entry entry = mHeap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            Entry p = mHeap[parent];
+            if (p.mDeadline <= entry.mDeadline) {
+                break;
+            }
+            mHeap[index] = p;
+            p.mHeapIndex = index;
+            index = parent;
+        }
+        mHeap[index] = entry;
+        entry.mHeapIndex = index;
+    }
+
+    private void siftDown(int index) {
+        Entry entry = mHeap[index];
+        int half = mSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < mSize && mHeap[right].mDeadline < mHeap[child].mDeadline) {
+                child = right;
+            }
+            Entry c = mHeap[child];
+            if (entry.mDeadline <= c.mDeadline) {
+                break;
+            }
+            mHeap[index] = c;
+            c.mHeapIndex = index;
+            index = child;
+        }
+        mHeap[index] = entry;
+        entry.mHeapIndex = index;
+    }
+}
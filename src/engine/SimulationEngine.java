@@ -0,0 +1,921 @@
+package engine;
+
+import model.AccelerometerModel;
+import model.GravityModel;
+import model.GyroscopeModel;
+import model.LinearAccelerationModel;
+import model.MagneticFieldGrid;
+import model.MagneticFieldModel;
+import model.NoiseModel;
+import model.OrientationModel;
+import model.RotationVectorModel;
+import model.SensorModel;
+import model.SensorReadout;
+import model.SensorSample;
+import utils.Clock;
+import utils.Quaternion;
+import utils.RotationCache;
+import utils.RotationMatrix;
+import utils.SimulatedClock;
+import utils.Vector;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the sensor models independently of any user interface.
+ *
+ * The engine owns the input orientation and the accelerometer, gyroscope and
+ * magnetic field models. It advances them on a fixed-step schedule in its own
+ * thread, or synchronously through tick() and advance().
+ *
+ * The gravity, linear acceleration, rotation vector and orientation sensors
+ * are derived from the same rotation matrix and vectors as the accelerometer
+ * whenever the orientation changes, so they add no rotation to a tick, only
+ * their read-outs.
+ *
+ * With the wall clock the schedule follows real time. With a SimulatedClock
+ * the engine advances the clock by one tick period per tick and never waits,
+ * so it runs as fast as the CPU allows.
+ *
+ * The orientation is kept as a quaternion that rotates lab-frame vectors into
+ * the device frame. Continuous rotation set by setAngularVelocity() turns it
+ * by the angular velocity times the clock time since the previous tick, so
+ * late or unthrottled ticks rotate the right amount. With a steady tick
+ * period it costs one quaternion multiplication per tick; the step rotation
+ * is only rebuilt when the elapsed time changes. While it rotates, the
+ * gyroscope is refreshed in GyroscopeModel.Mode.QUATERNION_DELTA whatever its
+ * mode, as the Euler rates of EULER_RATE are wrong for a rotation that wraps
+ * the angles; EULER_RATE stays for the input of the user interface.
+ *
+ * Sensor read-outs are not polled by the ticks. A SensorScheduler wakes each
+ * sensor at its own update deadline, which may fall between ticks and be
+ * shorter than the tick period; averaging sensors sum their values on every
+ * tick.
+ *
+ * The spring-mass physics of the accelerometer runs on the ticks, in fixed
+ * substeps of simulated time (AccelerometerModel.advance()), so its cost per
+ * simulated second and its stability depend only on the substep and the
+ * integrator, not on the tick period or on how often the input changes.
+ *
+ * With setIdleWhenAtRest(true) the engine thread parks while nothing can
+ * change: no new input, no rotation, the physics settled and no tick
+ * listener. Sensors with an update period keep publishing their static
+ * read-outs on schedule; input or a new tick listener resumes the ticks at
+ * once.
+ *
+ * setOrientation(yaw, pitch, roll) may be called from any thread while the
+ * engine thread runs: the angles are published without locking and applied
+ * by the next tick. One input thread, such as the user interface, may
+ * instead submitOrientation(): the time-stamped commands are queued and
+ * interpolated on every tick, see OrientationInputQueue. setMove() is
+ * published the same way as setOrientation(). All other methods that change
+ * the orientation must be called from a tick listener or while the engine
+ * thread is stopped. Other threads read the sensors through
+ * SensorModel.getReadout().
+ */
+public class SimulationEngine {
+
+    public static final double GRAVITY_CONSTANT = 9.80665;
+    public static final double MAGNETIC_NORTH = 22874.1;
+    public static final double MAGNETIC_EAST = 5939.5;
+    public static final double MAGNETIC_VERTICAL = 43180.5;
+
+    // Errors of a typical consumer MEMS device, used by setNoiseSeed():
+    // white noise, bias instability over 100 s and random walk per second
+    private static final double ACCELEROMETER_WHITE_NOISE = 0.02;
+    private static final double ACCELEROMETER_BIAS = 0.01;
+    private static final double ACCELEROMETER_RANDOM_WALK = 0.002;
+    private static final double GYROSCOPE_WHITE_NOISE = 0.005;
+    private static final double GYROSCOPE_BIAS = 0.002;
+    private static final double GYROSCOPE_RANDOM_WALK = 0.0005;
+    private static final double MAGNETIC_WHITE_NOISE = 0.4;
+    private static final double MAGNETIC_BIAS = 0.2;
+    private static final double MAGNETIC_RANDOM_WALK = 0.02;
+    private static final double BIAS_CORRELATION_SECONDS = 100;
+
+    /** Default tick period, matching the former 10 ms UI loop. */
+    public static final long DEFAULT_TICK_NANOS = 10000000L;
+
+    /**
+     * Called on the engine thread after every tick.
+     */
+    public interface TickListener {
+        void onTick(SimulationEngine engine);
+    }
+
+    private final AccelerometerModel mAccelerometerModel;
+    private final GyroscopeModel mGyroscopeModel;
+    private final MagneticFieldModel mMagneticFieldModel;
+    private final GravityModel mGravityModel;
+    private final LinearAccelerationModel mLinearAccelerationModel;
+    private final RotationVectorModel mRotationVectorModel;
+    private final OrientationModel mOrientationModel;
+    /** All sensor models, physical ones first. */
+    private final SensorModel[] mSensorModels;
+
+    private final CopyOnWriteArrayList<TickListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private final SensorScheduler mScheduler = new SensorScheduler();
+
+    /** Rotation from the lab frame to the device frame. */
+    private final Quaternion mOrientation = new Quaternion();
+
+    // Input orientation in degrees, kept in step with mOrientation
+    private double mYaw;
+    private double mPitch;
+    private double mRoll;
+
+    /** Matrix form of mOrientation, rebuilt whenever the orientation changes. */
+    private final RotationMatrix mRotation = new RotationMatrix();
+
+    /** Orientation requested by other threads, as yaw, pitch and roll. */
+    private final SensorReadout mInput = new SensorReadout();
+    private final SensorSample mInputSample = new SensorSample();
+    /** Sequence number of the last input applied or superseded. */
+    private long mAppliedInput;
+    /** Device position requested by other threads, as x, 0 and z. */
+    private final SensorReadout mMoveInput = new SensorReadout();
+    /** Sequence number of the last move applied or superseded. */
+    private long mAppliedMove;
+
+    /** Time-stamped input from one producer thread, interpolated per tick. */
+    private final OrientationInputQueue mInputQueue = new OrientationInputQueue(256);
+    /** Yaw, pitch and roll handed to and from mInputQueue. */
+    private final double[] mInputAngles = new double[3];
+
+    /** Optional cache for whole-degree orientations, may be null. */
+    private RotationCache mRotationCache;
+
+    // Angular velocity around the device axes in radians per second
+    private double mAngularVelocityX;
+    private double mAngularVelocityY;
+    private double mAngularVelocityZ;
+    private double mAngularSpeed;
+    private boolean mRotating;
+    /** Whether the last tick refreshed the gyroscope in QUATERNION_DELTA. */
+    private boolean mQuaternionGyroscope;
+    /** Rotation over mStepNanos, applied to mOrientation while rotating. */
+    private final Quaternion mStepRotation = new Quaternion();
+    /** Elapsed time mStepRotation was built for, -1 if none. */
+    private long mStepNanos = -1;
+
+    // Earth's field at the device in nT
+    private double mFieldNorth = MAGNETIC_NORTH;
+    private double mFieldEast = MAGNETIC_EAST;
+    private double mFieldDown = MAGNETIC_VERTICAL;
+
+    // Scratch vectors, reused so an orientation change allocates nothing
+    private final Vector mMagneticFieldVec = new Vector();
+    private final Vector mGravityVec = new Vector();
+    private final Vector mLinearVec = new Vector();
+
+    /**
+     * Clock time of the last tick, up to which the physics and the
+     * continuous rotation have been advanced.
+     */
+    private long mPhysicsTime;
+
+    /** Duration of one tick in nanoseconds. Zero runs unthrottled. */
+    private long mTickNanos;
+
+    private Clock mClock;
+
+    private volatile boolean mRunning;
+    private volatile Thread mThread;
+    /** Written by the ticking thread only, read by any thread. */
+    private volatile long mTickCount;
+
+    /** Whether the engine thread may park while everything is at rest. */
+    private volatile boolean mIdleWhenAtRest;
+    /** Whether the engine thread is parked because everything is at rest. */
+    private volatile boolean mIdle;
+
+    public SimulationEngine() {
+        mAccelerometerModel = new AccelerometerModel();
+        mGyroscopeModel = new GyroscopeModel();
+        mMagneticFieldModel = new MagneticFieldModel();
+        mGravityModel = new GravityModel();
+        mLinearAccelerationModel = new LinearAccelerationModel();
+        mRotationVectorModel = new RotationVectorModel();
+        mOrientationModel = new OrientationModel();
+        mSensorModels = new SensorModel[]{
+                mAccelerometerModel, mGyroscopeModel, mMagneticFieldModel,
+                mGravityModel, mLinearAccelerationModel, mRotationVectorModel, mOrientationModel
+        };
+
+        // The derived sensors are read out at the normal rate rather than on
+        // every tick, so they cost next to nothing until a user asks for a
+        // faster rate
+        mGravityModel.setUpdateDuration(SensorModel.DELAY_MS_NORMAL);
+        mLinearAccelerationModel.setUpdateDuration(SensorModel.DELAY_MS_NORMAL);
+        mRotationVectorModel.setUpdateDuration(SensorModel.DELAY_MS_NORMAL);
+        mOrientationModel.setUpdateDuration(SensorModel.DELAY_MS_NORMAL);
+
+        mTickNanos = DEFAULT_TICK_NANOS;
+        mClock = Clock.WALL;
+
+        long now = mClock.nanoTime();
+        for (SensorModel sensor : mSensorModels) {
+            mScheduler.add(sensor, now);
+        }
+        mPhysicsTime = now;
+
+        updateOrientation();
+    }
+
+    /**
+     * Starts the fixed-step loop in a daemon thread.
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this::run, "simulation-engine");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops the loop and waits for the engine thread to finish.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    private void run() {
+        Clock clock = mClock;
+        if (clock instanceof SimulatedClock) {
+            SimulatedClock simulatedClock = (SimulatedClock) clock;
+            while (mRunning) {
+                step(simulatedClock);
+            }
+            return;
+        }
+
+        long nextTick = clock.nanoTime();
+        while (mRunning) {
+            long now = clock.nanoTime();
+            if (mIdleWhenAtRest && isAtRest()) {
+                idle(clock);
+                // resume at once, without catching up on the idle time
+                nextTick = clock.nanoTime();
+                mPhysicsTime = nextTick;
+                continue;
+            }
+            if (now < nextTick) {
+                // woken for a sensor deadline between two ticks
+                mScheduler.runDue(now);
+            } else {
+                tick();
+
+                if (mTickNanos <= 0) {
+                    continue;
+                }
+                nextTick += mTickNanos;
+                now = clock.nanoTime();
+                if (nextTick < now) {
+                    // Don't lag too much behind.
+                    // If we are too slow, then we are too slow.
+                    nextTick = now;
+                }
+            }
+            long wakeUp = Math.min(nextTick, mScheduler.nextDeadline());
+            long remaining;
+            while (mRunning && (remaining = wakeUp - clock.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+    }
+
+    /**
+     * Parks until the next sensor deadline or until woken by new input, and
+     * runs the sensors that are due. A changed update period is picked up
+     * at the next wake-up.
+     */
+    private void idle(Clock clock) {
+        mIdle = true;
+        long now = clock.nanoTime();
+        mScheduler.checkPeriods(now);
+        mScheduler.runDue(now);
+        long deadline = mScheduler.nextDeadline();
+        // check again, so a wake-up sent meanwhile is not missed
+        if (mRunning && isAtRest()) {
+            if (deadline == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else if (deadline > now) {
+                LockSupport.parkNanos(this, deadline - now);
+            }
+        }
+        mIdle = false;
+    }
+
+    /**
+     * @return Whether another tick would not change anything: no pending
+     *         input, no rotation, the physics settled and no tick listener
+     *         that needs every tick.
+     */
+    private boolean isAtRest() {
+        return mInput.getSequence() == mAppliedInput
+                && mMoveInput.getSequence() == mAppliedMove
+                && !mInputQueue.hasPending()
+                && !mRotating
+                && mListeners.isEmpty()
+                && mGyroscopeModel.isAtRest()
+                && mAccelerometerModel.isAtRest();
+    }
+
+    private void wakeUp() {
+        Thread thread = mThread;
+        if (thread != null && mIdle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Runs one tick and moves the simulated clock to the next one, stopping
+     * at every sensor deadline on the way.
+     */
+    private void step(SimulatedClock clock) {
+        tick();
+        long end = clock.nanoTime() + mTickNanos;
+        long deadline;
+        while ((deadline = mScheduler.nextDeadline()) < end) {
+            clock.setNanoTime(deadline);
+            mScheduler.runDue(deadline);
+        }
+        clock.setNanoTime(end);
+    }
+
+    /**
+     * Runs ticks on the calling thread until the simulated clock has moved
+     * forward by the given amount.
+     *
+     * @param nanos Simulated time to advance, in nanoseconds.
+     * @throws IllegalStateException if the engine does not use a
+     *             SimulatedClock, has no tick period or is already running.
+     */
+    public void advance(long nanos) {
+        if (!(mClock instanceof SimulatedClock)) {
+            throw new IllegalStateException("advance() requires a SimulatedClock");
+        }
+        if (mTickNanos <= 0) {
+            throw new IllegalStateException("advance() requires a tick period");
+        }
+        if (mRunning) {
+            throw new IllegalStateException("Engine thread is running");
+        }
+        SimulatedClock clock = (SimulatedClock) mClock;
+        long end = clock.nanoTime() + nanos;
+        while (clock.nanoTime() < end) {
+            step(clock);
+        }
+    }
+
+    /**
+     * Advances all sensor models by one step and notifies the listeners.
+     */
+    public void tick() {
+        long now = mClock.nanoTime();
+        boolean quaternionGyroscope = mRotating
+                || mGyroscopeModel.getMode() == GyroscopeModel.Mode.QUATERNION_DELTA;
+        if (quaternionGyroscope != mQuaternionGyroscope) {
+            mQuaternionGyroscope = quaternionGyroscope;
+            // measure from the orientation of the last tick, before this
+            // tick's input and rotation step
+            mGyroscopeModel.restart(mOrientation, mPhysicsTime, mPitch, mYaw, mRoll);
+        }
+        long input = mInput.getSequence();
+        if (input != mAppliedInput) {
+            mAppliedInput = mInput.read(mInputSample);
+            applyOrientation(mInputSample.x, mInputSample.y, mInputSample.z);
+        }
+        if (mMoveInput.getSequence() != mAppliedMove) {
+            mAppliedMove = mMoveInput.read(mInputSample);
+            mAccelerometerModel.setMove(mInputSample.x, mInputSample.z);
+        }
+        mInputAngles[0] = mYaw;
+        mInputAngles[1] = mPitch;
+        mInputAngles[2] = mRoll;
+        if (mInputQueue.sample(now, mOrientation, mInputAngles)) {
+            // the commanded angles, which stay defined at a pitch of +-90
+            mYaw = mInputAngles[0];
+            mPitch = mInputAngles[1];
+            mRoll = mInputAngles[2];
+            updateOrientation();
+        }
+
+        long rotationNanos = now - mPhysicsTime;
+        if (mRotating && rotationNanos > 0) {
+            updateStepRotation(rotationNanos);
+            mOrientation.multiply(mStepRotation, mOrientation);
+            mOrientation.normalize();
+            updateEulerAngles();
+            updateOrientation();
+        }
+
+        if (quaternionGyroscope) {
+            mGyroscopeModel.refreshAngularVelocity(mOrientation, now);
+        } else {
+            mGyroscopeModel.refreshAngularSpeed(GyroscopeModel.EULER_RATE_DT, mPitch, mYaw, mRoll);
+        }
+        advancePhysics(now);
+
+        for (SensorModel sensor : mSensorModels) {
+            sensor.sampleValues();
+        }
+
+        mScheduler.step(now);
+        mScheduler.runDue(now);
+
+        mTickCount++;
+
+        for (TickListener listener : mListeners) {
+            listener.onTick(this);
+        }
+    }
+
+    /**
+     * Advances the accelerometer physics to the given clock time and
+     * recomputes the acceleration if the test particle moved.
+     */
+    private void advancePhysics(long now) {
+        long elapsed = now - mPhysicsTime;
+        mPhysicsTime = now;
+        if (elapsed > 0 && !mAccelerometerModel.isAtRest()) {
+            mAccelerometerModel.advance(elapsed * 1e-9);
+            updateAccelerometerData();
+        }
+    }
+
+    /**
+     * Moves the device in the lab frame, e.g. by dragging it on the screen.
+     * The accelerometer sees the acceleration of its test particle following
+     * the device through the spring on the following ticks.
+     *
+     * While the engine thread runs, the position is handed over to it like
+     * an orientation from setOrientation() and takes effect with the next
+     * tick. Otherwise it takes effect at once.
+     *
+     * @param x Position in pixels.
+     * @param z Position in pixels.
+     */
+    public void setMove(double x, double z) {
+        Thread thread = mThread;
+        if (mRunning && thread != Thread.currentThread()) {
+            mMoveInput.write(x, 0, z, mClock.nanoTime());
+            wakeUp();
+            return;
+        }
+        // a pending move from another thread is older than this one
+        mAppliedMove = mMoveInput.getSequence();
+        mAccelerometerModel.setMove(x, z);
+    }
+
+    /**
+     * Sets the input orientation and recomputes the sensor input vectors.
+     *
+     * While the engine thread runs, the orientation is handed over to it and
+     * takes effect with the next tick; a newer orientation set before that
+     * tick replaces it. Otherwise it takes effect at once.
+     *
+     * @param yaw yaw in degrees.
+     * @param pitch pitch in degrees.
+     * @param roll roll in degrees.
+     */
+    public void setOrientation(double yaw, double pitch, double roll) {
+        Thread thread = mThread;
+        if (mRunning && thread != Thread.currentThread()) {
+            mInput.write(yaw, pitch, roll, mClock.nanoTime());
+            wakeUp();
+            return;
+        }
+        // a pending input from another thread is older than this one
+        mAppliedInput = mInput.getSequence();
+        applyOrientation(yaw, pitch, roll);
+    }
+
+    /**
+     * Queues an input orientation, time-stamped with the engine clock. The
+     * ticks approach it smoothly, rendering the queued input one
+     * interpolation delay in the past, so a low input rate still gives
+     * smooth read-outs at a high sensor rate.
+     *
+     * Must always be called from the same thread; a stopped engine applies
+     * the queue on the next tick() or advance().
+     *
+     * @param yaw yaw in degrees.
+     * @param pitch pitch in degrees.
+     * @param roll roll in degrees.
+     * @return false if the queue was full and the input was dropped.
+     */
+    public boolean submitOrientation(double yaw, double pitch, double roll) {
+        boolean queued = mInputQueue.offer(yaw, pitch, roll, mClock.nanoTime());
+        wakeUp();
+        return queued;
+    }
+
+    /**
+     * @return The queue of submitOrientation(), e.g. to set its
+     *         interpolation delay.
+     */
+    public OrientationInputQueue getInputQueue() {
+        return mInputQueue;
+    }
+
+    private void applyOrientation(double yaw, double pitch, double roll) {
+        // queued input continues from here
+        mInputQueue.restart();
+        mYaw = yaw;
+        mPitch = pitch;
+        mRoll = roll;
+
+        if (mRotationCache != null && yaw == (int) yaw && pitch == (int) pitch
+                && roll == (int) roll && pitch >= -90 && pitch <= 90) {
+            mRotationCache.get((int) roll, (int) pitch, (int) yaw, mOrientation, mRotation);
+            updateInputVectors();
+            return;
+        }
+        mOrientation.setReverseRollPitchYaw(roll, pitch, yaw);
+
+        updateOrientation();
+    }
+
+    /**
+     * Sets the input orientation and recomputes the sensor input vectors.
+     *
+     * @param orientation Rotation from the lab frame to the device frame.
+     */
+    public void setOrientation(Quaternion orientation) {
+        mOrientation.set(orientation);
+        mOrientation.normalize();
+        updateEulerAngles();
+
+        updateOrientation();
+    }
+
+    /**
+     * Rotates the device by the given rotation, expressed like the
+     * orientation as a rotation of lab-frame vectors.
+     */
+    public void rotate(Quaternion rotation) {
+        mOrientation.multiply(rotation, mOrientation);
+        mOrientation.normalize();
+        updateEulerAngles();
+
+        updateOrientation();
+    }
+
+    /**
+     * Rotates the device continuously. Every tick turns it by the angular
+     * velocity times the clock time since the previous tick.
+     *
+     * @param x Angular velocity around the device x-axis in radians/s.
+     * @param y Angular velocity around the device y-axis in radians/s.
+     * @param z Angular velocity around the device z-axis in radians/s.
+     */
+    public void setAngularVelocity(double x, double y, double z) {
+        mAngularVelocityX = x;
+        mAngularVelocityY = y;
+        mAngularVelocityZ = z;
+        mAngularSpeed = Math.sqrt(x * x + y * y + z * z);
+        mRotating = mAngularSpeed > 0;
+        mStepNanos = -1;
+    }
+
+    /**
+     * Sets mStepRotation to the rotation over the given time, unless it
+     * already is, so a steady tick period costs no trigonometry.
+     */
+    private void updateStepRotation(long nanos) {
+        if (nanos == mStepNanos) {
+            return;
+        }
+        mStepNanos = nanos;
+        // Turning the device by +angle turns lab vectors seen from the
+        // device by -angle.
+        mStepRotation.setAxisAngle(mAngularVelocityX, mAngularVelocityY, mAngularVelocityZ,
+                -mAngularSpeed * nanos * 1e-9);
+    }
+
+    private void updateEulerAngles() {
+        mYaw = mOrientation.getYaw();
+        if (mYaw < 0) {
+            mYaw += 360;
+        }
+        mPitch = mOrientation.getPitch();
+        mRoll = mOrientation.getRoll();
+        if (mRoll < 0) {
+            mRoll += 360;
+        }
+    }
+
+    private void updateOrientation() {
+        mOrientation.toRotationMatrix(mRotation);
+        updateInputVectors();
+    }
+
+    private void updateInputVectors() {
+        updateMagneticFieldData();
+        updateAccelerometerData();
+        updateRotationData();
+    }
+
+    private void updateMagneticFieldData() {
+        // convert from nT (nano-Tesla) to uT (micro-Tesla)
+        mRotation.apply(mFieldEast * 0.001, mFieldNorth * 0.001,
+                -mFieldDown * 0.001, mMagneticFieldVec);
+        mMagneticFieldModel.setCompass(mMagneticFieldVec);
+    }
+
+    private void updateAccelerometerData() {
+        // get component vectors (gravity + linear_acceleration)
+        Vector gravityVec = getGravityVector();
+        Vector linearVec = getLinearAccVector();
+
+        mGravityModel.setGravity(gravityVec);
+        mLinearAccelerationModel.setLinearAcceleration(linearVec);
+
+        gravityVec.add(linearVec);
+
+        mAccelerometerModel.setXYZ(gravityVec);
+
+        double limit = GRAVITY_CONSTANT * 10;
+
+        mAccelerometerModel.limitate(limit);
+    }
+
+    private void updateRotationData() {
+        mRotationVectorModel.setRotation(mOrientation);
+        mOrientationModel.setOrientation(mYaw, mPitch, mRoll);
+    }
+
+    private Vector getLinearAccVector() {
+        double meterPerPixel = 1. / 3000;
+
+        // Now calculate this into mobile phone acceleration:
+        // ! Mobile phone's acceleration is just opposite to
+        // lab frame acceleration !
+        mRotation.apply(-mAccelerometerModel.getAx() * meterPerPixel, 0,
+                -mAccelerometerModel.getAz() * meterPerPixel, mLinearVec);
+
+        return mLinearVec;
+    }
+
+    private Vector getGravityVector() {
+        // apply orientation
+        // we reverse roll, pitch, and yawDegree,
+        // as this is how the mobile phone sees the coordinate system.
+        mRotation.apply(0, 0, GRAVITY_CONSTANT, mGravityVec);
+
+        return mGravityVec;
+    }
+
+    /**
+     * Sets the Earth's magnetic field at the device, by default
+     * MAGNETIC_NORTH, MAGNETIC_EAST and MAGNETIC_VERTICAL. Must be called
+     * from a tick listener or while the engine thread is stopped.
+     *
+     * @param north North component in nT.
+     * @param east East component in nT.
+     * @param down Down component in nT.
+     */
+    public void setMagneticField(double north, double east, double down) {
+        mFieldNorth = north;
+        mFieldEast = east;
+        mFieldDown = down;
+        updateMagneticFieldData();
+    }
+
+    /**
+     * Places the device on the globe: sets the magnetic field from the grid.
+     * Must be called from a tick listener or while the engine thread is
+     * stopped.
+     *
+     * @param latitude Geodetic latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @param altitude Height above the ellipsoid in km.
+     */
+    public void setLocation(MagneticFieldGrid grid, double latitude, double longitude, double altitude) {
+        double[] field = new double[3];
+        grid.get(latitude, longitude, altitude, field);
+        setMagneticField(field[0], field[1], field[2]);
+    }
+
+    public void addTickListener(TickListener listener) {
+        mListeners.add(listener);
+        wakeUp();
+    }
+
+    public void removeTickListener(TickListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Sets the duration of one tick.
+     *
+     * @param tickNanos Tick period in nanoseconds, or 0 to run unthrottled.
+     */
+    public void setTickNanos(long tickNanos) {
+        mTickNanos = tickNanos;
+    }
+
+    public long getTickNanos() {
+        return mTickNanos;
+    }
+
+    public RotationCache getRotationCache() {
+        return mRotationCache;
+    }
+
+    /**
+     * Sets a cache used by setOrientation() for whole-degree orientations.
+     * submitOrientation() converts on the input thread and takes its own
+     * cache, see OrientationInputQueue.setRotationCache().
+     *
+     * @param rotationCache Cache, or null to compute every rotation.
+     */
+    public void setRotationCache(RotationCache rotationCache) {
+        mRotationCache = rotationCache;
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Sets the clock of the engine and all its sensor models. Must not be
+     * called while the engine thread is running.
+     *
+     * @param clock Clock.WALL or a SimulatedClock.
+     */
+    public void setClock(Clock clock) {
+        if (mRunning) {
+            throw new IllegalStateException("Engine thread is running");
+        }
+        mClock = clock;
+        for (SensorModel sensor : mSensorModels) {
+            sensor.setClock(clock);
+        }
+        mScheduler.reset(clock.nanoTime());
+        mPhysicsTime = clock.nanoTime();
+    }
+
+    /**
+     * Adds typical MEMS noise, bias instability and drift to all sensors.
+     * The generators of the sensors are split off one generator, so two
+     * engines with the same seed and inputs produce identical read-outs.
+     * Must not be called while the engine thread is running.
+     *
+     * @param seed Seed of the noise of this device.
+     */
+    public void setNoiseSeed(long seed) {
+        if (mRunning) {
+            throw new IllegalStateException("Engine thread is running");
+        }
+        NoiseModel device = new NoiseModel(seed);
+        mAccelerometerModel.setNoiseModel(createNoise(device, SensorModel.TYPE_ACCELEROMETER));
+        mGyroscopeModel.setNoiseModel(createNoise(device, SensorModel.TYPE_GYROSCOPE));
+        mMagneticFieldModel.setNoiseModel(createNoise(device, SensorModel.TYPE_MAGNETIC_FIELD));
+    }
+
+    /**
+     * Typical MEMS errors of one sensor, as used by setNoiseSeed().
+     *
+     * @param device Generator of the device; the sensor's generator is split
+     *            off it.
+     * @param type SensorModel.TYPE_ACCELEROMETER, TYPE_GYROSCOPE or
+     *            TYPE_MAGNETIC_FIELD.
+     */
+    public static NoiseModel createNoise(NoiseModel device, int type) {
+        switch (type) {
+            case SensorModel.TYPE_ACCELEROMETER:
+                return createNoise(device, ACCELEROMETER_WHITE_NOISE, ACCELEROMETER_BIAS,
+                        ACCELEROMETER_RANDOM_WALK);
+            case SensorModel.TYPE_GYROSCOPE:
+                return createNoise(device, GYROSCOPE_WHITE_NOISE, GYROSCOPE_BIAS,
+                        GYROSCOPE_RANDOM_WALK);
+            case SensorModel.TYPE_MAGNETIC_FIELD:
+                return createNoise(device, MAGNETIC_WHITE_NOISE, MAGNETIC_BIAS,
+                        MAGNETIC_RANDOM_WALK);
+            default:
+                throw new IllegalArgumentException("Unsupported sensor type: " + type);
+        }
+    }
+
+    private static NoiseModel createNoise(NoiseModel device, double white, double bias, double walk) {
+        NoiseModel noise = device.split();
+        noise.setWhiteNoise(white);
+        noise.setBiasInstability(bias, BIAS_CORRELATION_SECONDS);
+        noise.setRandomWalk(walk);
+        return noise;
+    }
+
+    /**
+     * @return The scheduler of the sensor read-outs, e.g. for its lag
+     *         statistics. Only to be used on the engine thread or while the
+     *         engine thread is stopped.
+     */
+    public SensorScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Lets the engine thread park while everything is at rest, see the class
+     * description. Has no effect with a SimulatedClock, where the engine
+     * never waits.
+     */
+    public void setIdleWhenAtRest(boolean idleWhenAtRest) {
+        mIdleWhenAtRest = idleWhenAtRest;
+        wakeUp();
+    }
+
+    public boolean isIdleWhenAtRest() {
+        return mIdleWhenAtRest;
+    }
+
+    /**
+     * @return Whether the engine thread is currently parked at rest.
+     */
+    public boolean isIdle() {
+        return mIdle;
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    public double getYaw() {
+        return mYaw;
+    }
+
+    public double getPitch() {
+        return mPitch;
+    }
+
+    public double getRoll() {
+        return mRoll;
+    }
+
+    /**
+     * @return The current orientation. Must not be modified.
+     */
+    public Quaternion getOrientation() {
+        return mOrientation;
+    }
+
+    public AccelerometerModel getAccelerometerModel() {
+        return mAccelerometerModel;
+    }
+
+    public GyroscopeModel getGyroscopeModel() {
+        return mGyroscopeModel;
+    }
+
+    public MagneticFieldModel getMagneticFieldModel() {
+        return mMagneticFieldModel;
+    }
+
+    public GravityModel getGravityModel() {
+        return mGravityModel;
+    }
+
+    public LinearAccelerationModel getLinearAccelerationModel() {
+        return mLinearAccelerationModel;
+    }
+
+    public RotationVectorModel getRotationVectorModel() {
+        return mRotationVectorModel;
+    }
+
+    public OrientationModel getOrientationModel() {
+        return mOrientationModel;
+    }
+
+    /**
+     * @return All sensor models: accelerometer, gyroscope, magnetic field,
+     *         gravity, linear acceleration, rotation vector and orientation.
+     *         Must not be modified.
+     */
+    public SensorModel[] getSensorModels() {
+        return mSensorModels;
+    }
+}
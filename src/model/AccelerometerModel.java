@@ -3,10 +3,42 @@ package model;
 import utils.Vector;
 
 import java.io.PrintWriter;
-import java.util.Random;
 
 public class AccelerometerModel extends SensorModel {
 
+    /**
+     * Integration scheme of the spring-mass physics.
+     */
+    public enum Integrator {
+        /**
+         * Updates the velocity first and moves with the new velocity. One
+         * force evaluation per substep; stable as long as the substep is
+         * well below 1 / sqrt(k / m) and 1 / gamma.
+         */
+        SEMI_IMPLICIT_EULER,
+        /**
+         * Classical fourth-order Runge-Kutta. Four force evaluations per
+         * substep, but accurate with much longer substeps.
+         */
+        RK4
+    }
+
+    /** Motion below this, in pixels and seconds, counts as settled. */
+    private static final double REST_TOLERANCE = 1e-6;
+
+    // Axes of mPosition and mVelocity
+    private static final int X = 0;
+    private static final int Z = 1;
+
+    /** Default physics substep in seconds, the former fixed step. */
+    public static final double DEFAULT_SUBSTEP = 0.001;
+
+    /**
+     * Most substeps run by one advance(); time beyond that is dropped, so a
+     * stalled caller cannot make the physics fall further behind.
+     */
+    public static final int MAX_SUBSTEPS = 1000;
+
     /**
      * Current read-out value of accelerometer x-component.
      *
@@ -32,30 +64,16 @@ public class AccelerometerModel extends SensorModel {
     private double aX; // acceleration
     private double aZ;
 
-    private double mAccX; // accelerometer position x on screen
-    private double mAccZ; // (DONT confuse with acceleration a!)
-
-    /**
-     * Partial read-out value of accelerometer x-component.
-     *
-     * This partial value is used to calculate the sensor average.
-     */
-    private double mPartialAccelX;
-    /** Partial read-out value of accelerometer y-component. */
-    private double mPartialAccelY;
-    /** Partial read-out value of accelerometer z-component. */
-    private double mPartialAccelZ;
-
-    /** Number of summands in partial sum for accelerometer. */
-    private int mPartialAccelN;
+    /** Accelerometer position x and z on screen (DONT confuse with acceleration a!). */
+    private final double[] mPosition = new double[2];
 
     /** Current position on screen. */
-    private int mMoveX;
+    private double mMoveX;
     /** Current position on screen. */
-    private int mMoveZ;
+    private double mMoveZ;
 
-    private double mVX; // velocity
-    private double mVZ;
+    /** Velocity in x and z. */
+    private final double[] mVelocity = new double[2];
 
     /** Spring constant. */
     private double mSpringK;
@@ -79,14 +97,19 @@ public class AccelerometerModel extends SensorModel {
      * */
     private double mGConstant;
 
+    private Integrator mIntegrator = Integrator.SEMI_IMPLICIT_EULER;
+    /** Duration of one physics substep in seconds. */
+    private double mSubstep = DEFAULT_SUBSTEP;
+    /** Simulated time not yet integrated, less than one substep; an array for substeps(). */
+    private final double[] mAccumulator = new double[1];
+    /** Velocity computed by the last rk4Position(). */
+    private double mRk4Velocity;
+
     // Accelerometer
     private double mAccelerometerLimit;
     private boolean mShowAcceleration;
 
     public AccelerometerModel() {
-        mAccX = 0;
-        mAccZ = 0;
-
         mShowAcceleration = true;
 
         mMoveX = 0;
@@ -108,72 +131,61 @@ public class AccelerometerModel extends SensorModel {
     }
 
     public void limitate(double limit) {
-        if (mAccelX > limit) {
-            mAccelX = limit;
-        }
-        if (mAccelX < -limit) {
-            mAccelX = -limit;
-        }
-        if (mAccelY > limit) {
-            mAccelY = limit;
-        }
-        if (mAccelY < -limit) {
-            mAccelY = -limit;
-        }
-        if (mAccelZ > limit) {
-            mAccelZ = limit;
-        }
-        if (mAccelZ < -limit) {
-            mAccelZ = -limit;
-        }
+        mAccelX = Math.max(-limit, Math.min(limit, mAccelX));
+        mAccelY = Math.max(-limit, Math.min(limit, mAccelY));
+        mAccelZ = Math.max(-limit, Math.min(limit, mAccelZ));
+    }
+
+    @Override
+    protected void addFilterSample() {
+        mFilter.add(mAccelX, mAccelY, mAccelZ);
     }
 
     @Override
-    public void updateSensorReadoutValues() {
-        long currentTime = System.currentTimeMillis();
-        // Form the average
-        if (mAverage) {
-            mPartialAccelX += mAccelX;
-            mPartialAccelY += mAccelY;
-            mPartialAccelZ += mAccelZ;
-            mPartialAccelN++;
+    protected void updateReadValues() {
+        if (mFilter == null || !mFilter.read(mReadValues)) {
+            // Only take current value
+            mReadValues[0] = mAccelX;
+            mReadValues[1] = mAccelY;
+            mReadValues[2] = mAccelZ;
         }
+        applyMeasurementErrors(mReadValues);
+        mReadAccelx = mReadValues[0];
+        mReadAccely = mReadValues[1];
+        mReadAccelz = mReadValues[2];
+        publishReadout(mReadAccelx, mReadAccely, mReadAccelz);
+    }
 
-        // Update
-        if (currentTime >= mNextUpdate) {
-            mNextUpdate += mUpdateDuration;
-            if (mNextUpdate < currentTime) {
-                // Don't lag too much behind.
-                // If we are too slow, then we are too slow.
-                mNextUpdate = currentTime;
-            }
+    @Override
+    public String getName() {
+        return ACCELEROMETER;
+    }
 
-            if (mAverage) {
-                // form average
-                computeAvg();
-
-                // reset average
-                resetAvg();
-            } else {
-                // Only take current value
-                mReadAccelx = mAccelX;
-                mReadAccely = mAccelY;
-                mReadAccelz = mAccelZ;
-            }
-        }
+    @Override
+    public int getType() {
+        return TYPE_ACCELEROMETER;
+    }
+
+    @Override
+    public int getNumValues() {
+        return 3;
     }
 
-    public void resetAvg() {
-        mPartialAccelX = 0;
-        mPartialAccelY = 0;
-        mPartialAccelZ = 0;
-        mPartialAccelN = 0;
+    @Override
+    public void getReadValues(double[] values) {
+        values[0] = mReadAccelx;
+        values[1] = mReadAccely;
+        values[2] = mReadAccelz;
     }
 
-    public void computeAvg() {
-        mReadAccelx = mPartialAccelX / mPartialAccelN;
-        mReadAccely = mPartialAccelY / mPartialAccelN;
-        mReadAccelz = mPartialAccelZ / mPartialAccelN;
+    @Override
+    public void getNumSensorValues(PrintWriter out) {
+        out.println("3");
+    }
+
+    @Override
+    public void printSensorData(PrintWriter out) {
+        out.println(mReadAccelx + ":" + mReadAccely + ":" + mReadAccelz);
     }
 
     public double getReadAccelerometerX() {
@@ -188,35 +200,190 @@ public class AccelerometerModel extends SensorModel {
         return mReadAccelz;
     }
 
+    /**
+     * Sets the spring constants and integrates one step of the given length.
+     */
     public void refreshAcceleration(double kView, double gammaView, double dt) {
         mSpringK = kView;
         mGamma = gammaView;
+        integrate(dt);
+    }
+
+    /**
+     * Advances the physics by the given simulated time in fixed substeps.
+     * Time left over is kept for the next call, so the number of substeps
+     * per simulated second is the same however the time is split up.
+     *
+     * @param seconds Simulated time since the last call.
+     * @return Number of substeps run.
+     */
+    public int advance(double seconds) {
+        int substeps = substeps(mAccumulator, 0, seconds, mSubstep);
+        for (int n = 0; n < substeps; n++) {
+            integrate(mSubstep);
+        }
+        return substeps;
+    }
 
-        // First calculate the force acting on the
-        // sensor test particle, assuming that
-        // the accelerometer is mounted by a string:
-        // F = - k * x
-        double Fx = kView * (mMoveX - mAccX);
-        double Fz = gammaView * (mMoveZ - mAccZ);
-
-        // a = F / m
-        aX = Fx / mMass;
-        aZ = Fz / mMass;
-
-        mVX += aX * dt;
-        mVZ += aZ * dt;
-
-        // Now this is the force that tries to adjust
-        // the accelerometer back
-        // integrate dx/dt = v;
-        mAccX += mVX * dt;
-        mAccZ += mVZ * dt;
-
-        // We put damping here: We don't want to damp for
-        // zero motion with respect to the background,
-        // but with respect to the mobile phone:
-        mAccX += gammaView * (mMoveX - mAccX) * dt;
-        mAccZ += gammaView * (mMoveZ - mAccZ) * dt;
+    /**
+     * The time keeping of advance(), shared with FleetEngine: adds the time
+     * to the accumulator and takes as many whole substeps out of it as fit,
+     * up to MAX_SUBSTEPS.
+     *
+     * @param accumulator Time not yet integrated, accumulator[i] is read
+     *            and updated.
+     * @return Number of substeps to run.
+     */
+    public static int substeps(double[] accumulator, int i, double seconds, double substep) {
+        accumulator[i] += seconds;
+        int substeps = 0;
+        while (accumulator[i] >= substep) {
+            if (substeps == MAX_SUBSTEPS) {
+                accumulator[i] = 0;
+                break;
+            }
+            accumulator[i] -= substep;
+            substeps++;
+        }
+        return substeps;
+    }
+
+    /**
+     * Integrates one step of the spring-mass system with the selected
+     * integrator.
+     *
+     * The test particle is mounted to the device by a spring:
+     * a = F / m = k / m * (move - x). We put damping on the position, as we
+     * don't want to damp for zero motion with respect to the background,
+     * but with respect to the mobile phone: dx/dt = v + gamma * (move - x).
+     */
+    private void integrate(double dt) {
+        double w = mSpringK / mMass;
+        if (mIntegrator == Integrator.RK4) {
+            mPosition[X] = rk4Position(mPosition[X], mVelocity[X], mMoveX, w, dt);
+            mVelocity[X] = mRk4Velocity;
+            mPosition[Z] = rk4Position(mPosition[Z], mVelocity[Z], mMoveZ, w, dt);
+            mVelocity[Z] = mRk4Velocity;
+            // acceleration at the new state
+            aX = w * (mMoveX - mPosition[X]);
+            aZ = w * (mMoveZ - mPosition[Z]);
+        } else {
+            aX = springStep(mPosition, mVelocity, X, mMoveX, w, mGamma, dt);
+            aZ = springStep(mPosition, mVelocity, Z, mMoveZ, w, mGamma, dt);
+        }
+    }
+
+    /**
+     * One semi-implicit Euler step of one axis of the spring-mass system,
+     * shared with FleetEngine.
+     *
+     * @param position Positions of test particles, position[i] is read and
+     *            updated.
+     * @param velocity Velocities, velocity[i] is read and updated.
+     * @param move Position of the device.
+     * @param w Spring constant over mass.
+     * @param gamma Damping.
+     * @param dt Step in seconds.
+     * @return Acceleration at the old position, which drove the step.
+     */
+    public static double springStep(double[] position, double[] velocity, int i, double move,
+                                    double w, double gamma, double dt) {
+        // in the order of the original refreshAcceleration(): the spring
+        // accelerates, the particle moves, then the damping pulls the moved
+        // particle towards the device
+        double a = w * (move - position[i]);
+        velocity[i] += a * dt;
+        position[i] += velocity[i] * dt;
+        position[i] += gamma * (move - position[i]) * dt;
+        return a;
+    }
+
+    private double rk4Position(double x, double v, double move, double w, double dt) {
+        double g = mGamma;
+        double k1x = v + g * (move - x);
+        double k1v = w * (move - x);
+        double x2 = x + k1x * dt / 2;
+        double v2 = v + k1v * dt / 2;
+        double k2x = v2 + g * (move - x2);
+        double k2v = w * (move - x2);
+        double x3 = x + k2x * dt / 2;
+        double v3 = v + k2v * dt / 2;
+        double k3x = v3 + g * (move - x3);
+        double k3v = w * (move - x3);
+        double x4 = x + k3x * dt;
+        double v4 = v + k3v * dt;
+        double k4x = v4 + g * (move - x4);
+        double k4v = w * (move - x4);
+        mRk4Velocity = v + (k1v + 2 * k2v + 2 * k3v + k4v) * dt / 6;
+        return x + (k1x + 2 * k2x + 2 * k3x + k4x) * dt / 6;
+    }
+
+    /**
+     * Moves the device; the test particle follows through the spring.
+     *
+     * @param x Position in pixels.
+     * @param z Position in pixels.
+     */
+    public void setMove(double x, double z) {
+        mMoveX = x;
+        mMoveZ = z;
+    }
+
+    public double getMoveX() {
+        return mMoveX;
+    }
+
+    public double getMoveZ() {
+        return mMoveZ;
+    }
+
+    /**
+     * Sets the spring constant and the damping used by advance().
+     */
+    public void setSpring(double k, double gamma) {
+        mSpringK = k;
+        mGamma = gamma;
+    }
+
+    public Integrator getIntegrator() {
+        return mIntegrator;
+    }
+
+    public void setIntegrator(Integrator integrator) {
+        mIntegrator = integrator;
+    }
+
+    public double getSubstep() {
+        return mSubstep;
+    }
+
+    /**
+     * @param seconds Duration of one physics substep, independent of the
+     *            tick period and of the input rate.
+     */
+    public void setSubstep(double seconds) {
+        if (!(seconds > 0)) {
+            throw new IllegalArgumentException("Bad substep: " + seconds);
+        }
+        mSubstep = seconds;
+    }
+
+    /**
+     * @return Whether the test particle has settled at the device position,
+     *         so the spring no longer produces a linear acceleration.
+     */
+    public boolean isAtRest() {
+        return isAtRest(mPosition[X], mVelocity[X], aX, mMoveX)
+                && isAtRest(mPosition[Z], mVelocity[Z], aZ, mMoveZ);
+    }
+
+    /**
+     * @return Whether one axis of a test particle has settled at the device
+     *         position, see isAtRest().
+     */
+    public static boolean isAtRest(double position, double velocity, double acceleration, double move) {
+        return Math.abs(velocity) < REST_TOLERANCE && Math.abs(acceleration) < REST_TOLERANCE
+                && Math.abs(move - position) < REST_TOLERANCE;
     }
 
     public double getAx() {
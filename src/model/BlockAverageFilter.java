@@ -0,0 +1,48 @@
+package model;
+
+/**
+ * Average of the samples added since the previous read-out. This is the
+ * original averaging of the sensor models: consecutive windows do not
+ * overlap and their length follows the read-out rate.
+ */
+public class BlockAverageFilter implements ReadoutFilter {
+
+    private double mSumX;
+    private double mSumY;
+    private double mSumZ;
+    /** Number of summands in the partial sums. */
+    private int mCount;
+
+    @Override
+    public void add(double x, double y, double z) {
+        mSumX += x;
+        mSumY += y;
+        mSumZ += z;
+        mCount++;
+    }
+
+    @Override
+    public boolean read(double[] values) {
+        if (mCount == 0) {
+            return false;
+        }
+        values[0] = mSumX / mCount;
+        values[1] = mSumY / mCount;
+        values[2] = mSumZ / mCount;
+        reset();
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        mSumX = 0;
+        mSumY = 0;
+        mSumZ = 0;
+        mCount = 0;
+    }
+
+    @Override
+    public ReadoutFilter copy() {
+        return new BlockAverageFilter();
+    }
+}
@@ -0,0 +1,169 @@
+package model;
+
+/**
+ * Low-pass FIR filter that keeps one output every ratio samples, so the
+ * simulation can be oversampled and decimated to the read-out rate without
+ * aliasing. A read-out returns the latest output.
+ *
+ * The filter is only evaluated at the kept samples, which costs
+ * taps / ratio multiply-adds per sample on average. Every sample is stored
+ * twice in a ring buffer of twice the filter length, so the last taps
+ * samples are always contiguous and the convolution needs no index
+ * wrapping.
+ */
+public class FirDecimatorFilter implements ReadoutFilter {
+
+    private final double[] mCoefficients;
+    private final int mRatio;
+
+    // ring buffers of twice the filter length
+    private final double[] mX;
+    private final double[] mY;
+    private final double[] mZ;
+    private int mNext;
+    private int mCount;
+    private int mPhase;
+
+    private boolean mHasOutput;
+    private double mOutX;
+    private double mOutY;
+    private double mOutZ;
+
+    /**
+     * @param ratio Decimation ratio, samples per output.
+     * @param coefficients Filter coefficients, the first one applied to the
+     *            newest sample.
+     */
+    public FirDecimatorFilter(int ratio, double[] coefficients) {
+        if (ratio < 1) {
+            throw new IllegalArgumentException("Bad decimation ratio: " + ratio);
+        }
+        if (coefficients.length < 1) {
+            throw new IllegalArgumentException("No filter coefficients");
+        }
+        mRatio = ratio;
+        mCoefficients = coefficients.clone();
+        mX = new double[2 * coefficients.length];
+        mY = new double[2 * coefficients.length];
+        mZ = new double[2 * coefficients.length];
+    }
+
+    /**
+     * Creates a decimator with a windowed-sinc low-pass filter whose cutoff
+     * is the Nyquist frequency of the decimated rate.
+     *
+     * @param ratio Decimation ratio, samples per output.
+     * @param taps Number of coefficients, e.g. 4 * ratio + 1.
+     */
+    public static FirDecimatorFilter lowPass(int ratio, int taps) {
+        return new FirDecimatorFilter(ratio, lowPassCoefficients(0.5 / ratio, taps));
+    }
+
+    /**
+     * Windowed-sinc low-pass coefficients with a Hamming window, scaled to
+     * a gain of 1 for constant input.
+     *
+     * @param cutoff Cutoff frequency as a fraction of the sample rate, up to
+     *            0.5.
+     * @param taps Number of coefficients.
+     */
+    public static double[] lowPassCoefficients(double cutoff, int taps) {
+        if (taps < 1 || cutoff <= 0 || cutoff > 0.5) {
+            throw new IllegalArgumentException("Bad filter: cutoff " + cutoff + ", taps " + taps);
+        }
+        double[] coefficients = new double[taps];
+        double middle = (taps - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < taps; i++) {
+            double t = i - middle;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double window = taps == 1 ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+            coefficients[i] = sinc * window;
+            sum += coefficients[i];
+        }
+        for (int i = 0; i < taps; i++) {
+            coefficients[i] /= sum;
+        }
+        return coefficients;
+    }
+
+    public int getRatio() {
+        return mRatio;
+    }
+
+    @Override
+    public void add(double x, double y, double z) {
+        int taps = mCoefficients.length;
+        int i = mNext;
+        mX[i] = x;
+        mX[i + taps] = x;
+        mY[i] = y;
+        mY[i + taps] = y;
+        mZ[i] = z;
+        mZ[i + taps] = z;
+        if (mCount < taps) {
+            mCount++;
+        }
+        mNext = i + 1 == taps ? 0 : i + 1;
+
+        if (++mPhase == mRatio) {
+            mPhase = 0;
+            if (mCount == taps) {
+                filter(i + taps);
+            }
+        }
+    }
+
+    /**
+     * @param newest Index of the newest sample in the upper half of the
+     *            ring buffers; the older ones precede it.
+     */
+    private void filter(int newest) {
+        double[] c = mCoefficients;
+        double[] x = mX;
+        double[] y = mY;
+        double[] z = mZ;
+        double sumX = 0;
+        double sumY = 0;
+        double sumZ = 0;
+        for (int k = 0; k < c.length; k++) {
+            int j = newest - k;
+            sumX += c[k] * x[j];
+            sumY += c[k] * y[j];
+            sumZ += c[k] * z[j];
+        }
+        mOutX = sumX;
+        mOutY = sumY;
+        mOutZ = sumZ;
+        mHasOutput = true;
+    }
+
+    @Override
+    public boolean read(double[] values) {
+        if (!mHasOutput) {
+            return false;
+        }
+        values[0] = mOutX;
+        values[1] = mOutY;
+        values[2] = mOutZ;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < mX.length; i++) {
+            mX[i] = 0;
+            mY[i] = 0;
+            mZ[i] = 0;
+        }
+        mNext = 0;
+        mCount = 0;
+        mPhase = 0;
+        mHasOutput = false;
+    }
+
+    @Override
+    public ReadoutFilter copy() {
+        return new FirDecimatorFilter(mRatio, mCoefficients);
+    }
+}
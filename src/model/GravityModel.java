@@ -0,0 +1,99 @@
+package model;
+
+import utils.Vector;
+
+import java.io.PrintWriter;
+
+/**
+ * Virtual gravity sensor: the gravity part of the acceleration in device
+ * coordinates, without the linear acceleration of the device.
+ *
+ * The engine sets the input from the rotation it already computed for the
+ * accelerometer, so this sensor costs no rotation of its own.
+ */
+public class GravityModel extends SensorModel {
+
+    /** Current read-out value of gravity x-component. */
+    private double mReadGravityX;
+    /** Current read-out value of gravity y-component. */
+    private double mReadGravityY;
+    /** Current read-out value of gravity z-component. */
+    private double mReadGravityZ;
+
+    /** Internal state value of gravity x-component. */
+    private double mGravityX;
+    /** Internal state value of gravity y-component. */
+    private double mGravityY;
+    /** Internal state value of gravity z-component. */
+    private double mGravityZ;
+
+    @Override
+    protected void addFilterSample() {
+        mFilter.add(mGravityX, mGravityY, mGravityZ);
+    }
+
+    @Override
+    protected void updateReadValues() {
+        if (mFilter == null || !mFilter.read(mReadValues)) {
+            // Only take current value
+            mReadValues[0] = mGravityX;
+            mReadValues[1] = mGravityY;
+            mReadValues[2] = mGravityZ;
+        }
+        applyMeasurementErrors(mReadValues);
+        mReadGravityX = mReadValues[0];
+        mReadGravityY = mReadValues[1];
+        mReadGravityZ = mReadValues[2];
+        publishReadout(mReadGravityX, mReadGravityY, mReadGravityZ);
+    }
+
+    @Override
+    public String getName() {
+        return GRAVITY;
+    }
+
+    @Override
+    public int getType() {
+        return TYPE_GRAVITY;
+    }
+
+    @Override
+    public int getNumValues() {
+        return 3;
+    }
+
+    @Override
+    public void getReadValues(double[] values) {
+        values[0] = mReadGravityX;
+        values[1] = mReadGravityY;
+        values[2] = mReadGravityZ;
+    }
+
+    @Override
+    public void getNumSensorValues(PrintWriter out) {
+        out.println("3");
+    }
+
+    @Override
+    public void printSensorData(PrintWriter out) {
+        out.println(mReadGravityX + ":" + mReadGravityY + ":" + mReadGravityZ);
+    }
+
+    public void setGravity(Vector vec) {
+        mGravityX = vec.x;
+        mGravityY = vec.y;
+        mGravityZ = vec.z;
+    }
+
+    public double getReadGravityX() {
+        return mReadGravityX;
+    }
+
+    public double getReadGravityY() {
+        return mReadGravityY;
+    }
+
+    public double getReadGravityZ() {
+        return mReadGravityZ;
+    }
+}
@@ -1,8 +1,43 @@
 package model;
 
+import utils.Clock;
+import utils.Quaternion;
+
+import java.io.PrintWriter;
+
 public class GyroscopeModel extends SensorModel {
+
+    /**
+     * How the angular speed is derived from the orientation.
+     */
+    public enum Mode {
+        /**
+         * refreshAngularSpeed(): rate of change of yaw, pitch and roll,
+         * smoothed over the calls. Tuned for 100 calls per second.
+         */
+        EULER_RATE,
+        /**
+         * refreshAngularVelocity(): angular velocity of the device around
+         * its own x-, y- and z-axes in radians/s, from the rotation between
+         * two time-stamped orientations. Exact for a constant angular
+         * velocity between the two, at any rate.
+         */
+        QUATERNION_DELTA
+    }
+
     private static final double EPSILON = 0.10;
 
+    /** dt the engines pass to refreshAngularSpeed(), from the former 10 ms loop. */
+    public static final double EULER_RATE_DT = 10;
+    public static final double RADIUS_YAW = 0.15;
+    public static final double RADIUS_PITCH = 0.1;
+    public static final double RADIUS_ROLL = 0.1;
+
+    // Axes of mOldAngles, in read-out order
+    private static final int PITCH = 0;
+    private static final int ROLL = 1;
+    private static final int YAW = 2;
+
     private double mInstantSpeedYaw;
     private double mInstantSpeedRoll;
     private double mInstantSpeedPitch;
@@ -12,70 +47,81 @@ public class GyroscopeModel extends SensorModel {
     private double mReadAngleSpeedRoll;
     private double mReadAngleSpeedPitch;
 
-    /** Partial read-out value of gyroscope. */
-    private float mPartialAngleSpeedYaw;
-    private float mPartialAngleSpeedRoll;
-    private float mPartialAngleSpeedPitch;
-
-    /** Number of summands in partial sum for gyroscope. */
-    private int mPartialAngleSpeedN;
-
-    private double mOldYaw;
-    private double mOldRoll;
-    private double mOldPitch;
+    /** Smoothed pitch, roll and yaw of refreshAngularSpeed(). */
+    private final double[] mOldAngles = new double[3];
 
     // rotation radius in meters
     private double mRadiusYaw;
     private double mRadiusRoll;
     private double mRadiusPitch;
 
+    private Mode mMode = Mode.EULER_RATE;
+
+    // Previous orientation for QUATERNION_DELTA
+    private boolean mHasPrevious;
+    private double mPreviousW;
+    private double mPreviousX;
+    private double mPreviousY;
+    private double mPreviousZ;
+    private long mPreviousTimestamp;
+
     public GyroscopeModel() {
-        mRadiusPitch = 0.1;
-        mRadiusYaw = 0.15;
-        mRadiusRoll = 0.1;
+        mRadiusPitch = RADIUS_PITCH;
+        mRadiusYaw = RADIUS_YAW;
+        mRadiusRoll = RADIUS_ROLL;
+    }
+
+    @Override
+    protected void addFilterSample() {
+        // in read-out order: pitch, roll, yaw
+        mFilter.add(mInstantSpeedPitch, mInstantSpeedRoll, mInstantSpeedYaw);
     }
 
     @Override
-    public void updateSensorReadoutValues() {
-        long currentTime = System.currentTimeMillis();
-        // Form the average
-        if (mAverage) {
-            mPartialAngleSpeedYaw += mInstantSpeedYaw;
-            mPartialAngleSpeedRoll += mInstantSpeedRoll;
-            mPartialAngleSpeedPitch += mInstantSpeedPitch;
-            mPartialAngleSpeedN++;
+    protected void updateReadValues() {
+        if (mFilter == null || !mFilter.read(mReadValues)) {
+            // Only take current value
+            mReadValues[0] = mInstantSpeedPitch;
+            mReadValues[1] = mInstantSpeedRoll;
+            mReadValues[2] = mInstantSpeedYaw;
         }
+        applyMeasurementErrors(mReadValues);
+        mReadAngleSpeedPitch = mReadValues[0];
+        mReadAngleSpeedRoll = mReadValues[1];
+        mReadAngleSpeedYaw = mReadValues[2];
+        publishReadout(mReadAngleSpeedPitch, mReadAngleSpeedRoll, mReadAngleSpeedYaw);
+    }
 
-        // Update
-        if (currentTime >= mNextUpdate) {
-            mNextUpdate += mUpdateDuration;
-            if (mNextUpdate < currentTime) {
-                // Don't lag too much behind.
-                // If we are too slow, then we are too slow.
-                mNextUpdate = currentTime;
-            }
+    @Override
+    public String getName() {
+        return GYROSCOPE;
+    }
 
-            if (mAverage) {
-                // form average
-                mReadAngleSpeedYaw = mPartialAngleSpeedYaw
-                        / mPartialAngleSpeedN;
-                mReadAngleSpeedRoll = mPartialAngleSpeedRoll
-                        / mPartialAngleSpeedN;
-                mReadAngleSpeedPitch = mPartialAngleSpeedPitch
-                        / mPartialAngleSpeedN;
-                // reset average
-                mPartialAngleSpeedYaw = 0;
-                mPartialAngleSpeedRoll = 0;
-                mPartialAngleSpeedPitch = 0;
-                mPartialAngleSpeedN = 0;
-
-            } else {
-                // Only take current value
-                mReadAngleSpeedYaw = mInstantSpeedYaw;
-                mReadAngleSpeedRoll = mInstantSpeedRoll;
-                mReadAngleSpeedPitch = mInstantSpeedPitch;
-            }
-        }
+    @Override
+    public int getType() {
+        return TYPE_GYROSCOPE;
+    }
+
+    @Override
+    public int getNumValues() {
+        return 3;
+    }
+
+    @Override
+    public void getReadValues(double[] values) {
+        values[0] = mReadAngleSpeedPitch;
+        values[1] = mReadAngleSpeedRoll;
+        values[2] = mReadAngleSpeedYaw;
+    }
+
+    @Override
+    public void getNumSensorValues(PrintWriter out) {
+        out.println("3");
+    }
+
+    @Override
+    public void printSensorData(PrintWriter out) {
+        out.println(mReadAngleSpeedPitch + ":" + mReadAngleSpeedRoll + ":" + mReadAngleSpeedYaw);
     }
 
     public double getReadGyroscopeYaw() {
@@ -90,8 +136,119 @@ public class GyroscopeModel extends SensorModel {
         return mReadAngleSpeedPitch;
     }
 
+    /**
+     * @return Whether the angular speed is zero and stays zero until the
+     *         orientation changes.
+     */
+    public boolean isAtRest() {
+        return mInstantSpeedYaw == 0 && mInstantSpeedPitch == 0 && mInstantSpeedRoll == 0;
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        super.setClock(clock);
+        // time stamps of the old clock are meaningless now
+        mHasPrevious = false;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    /**
+     * Selects which refresh method the engine calls. Switching starts the
+     * quaternion mode afresh.
+     */
+    public void setMode(Mode mode) {
+        mMode = mode;
+        mHasPrevious = false;
+    }
+
+    /**
+     * Sets the angular velocity from the rotation between the previous
+     * orientation and this one. The values are in read-out order: around
+     * the device x-axis (pitch), y-axis (roll) and z-axis (yaw), right-handed.
+     *
+     * The first call, and calls without time passing, only record the
+     * orientation.
+     *
+     * @param orientation Rotation from the lab frame to the device frame,
+     *            normalized.
+     * @param timestamp Time of the orientation in nanoseconds.
+     */
+    public void refreshAngularVelocity(Quaternion orientation, long timestamp) {
+        if (mHasPrevious) {
+            long elapsed = timestamp - mPreviousTimestamp;
+            if (elapsed <= 0) {
+                return;
+            }
+            // Device rotation since the previous orientation in device
+            // coordinates: previous * conjugate(current).
+            double w = mPreviousW * orientation.w + mPreviousX * orientation.x
+                    + mPreviousY * orientation.y + mPreviousZ * orientation.z;
+            double x = -mPreviousW * orientation.x + mPreviousX * orientation.w
+                    - mPreviousY * orientation.z + mPreviousZ * orientation.y;
+            double y = -mPreviousW * orientation.y + mPreviousX * orientation.z
+                    + mPreviousY * orientation.w - mPreviousZ * orientation.x;
+            double z = -mPreviousW * orientation.z - mPreviousX * orientation.y
+                    + mPreviousY * orientation.x + mPreviousZ * orientation.w;
+            if (w < 0) {
+                // take the shorter way round
+                w = -w;
+                x = -x;
+                y = -y;
+                z = -z;
+            }
+            // rotation angle / |(x, y, z)|, tending to 2 / w for small angles
+            double norm = Math.sqrt(x * x + y * y + z * z);
+            double scale = norm < 1e-12 ? 2 / w : 2 * Math.atan2(norm, w) / norm;
+            scale /= elapsed * 1e-9;
+            mInstantSpeedPitch = x * scale;
+            mInstantSpeedRoll = y * scale;
+            mInstantSpeedYaw = z * scale;
+        }
+        mPreviousW = orientation.w;
+        mPreviousX = orientation.x;
+        mPreviousY = orientation.y;
+        mPreviousZ = orientation.z;
+        mPreviousTimestamp = timestamp;
+        mHasPrevious = true;
+    }
+
+    /**
+     * Starts both refresh methods afresh from the given orientation, e.g.
+     * when the engine switches between them: refreshAngularVelocity()
+     * measures from this orientation and time, and the smoothed angles of
+     * refreshAngularSpeed() jump to these angles. Neither then reports
+     * motion from before the switch.
+     */
+    public void restart(Quaternion orientation, long timestamp, double pitch, double yaw, double roll) {
+        mHasPrevious = false;
+        refreshAngularVelocity(orientation, timestamp);
+        mOldAngles[PITCH] = pitch;
+        mOldAngles[YAW] = yaw;
+        mOldAngles[ROLL] = roll;
+    }
+
     public void refreshAngularSpeed(double dt, double crtPitch, double crtYaw,
                                     double crtRoll) {
+        mInstantSpeedYaw = eulerRate(crtYaw, mOldAngles, YAW, mRadiusYaw, dt);
+        mInstantSpeedPitch = eulerRate(crtPitch, mOldAngles, PITCH, mRadiusPitch, dt);
+        mInstantSpeedRoll = eulerRate(crtRoll, mOldAngles, ROLL, mRadiusRoll, dt);
+    }
+
+    /**
+     * One axis of refreshAngularSpeed(), shared with FleetEngine: the speed
+     * from the old angle to the current one, after which the old angle
+     * moves a twentieth of the way towards the current one.
+     *
+     * @param crt Current angle in degrees.
+     * @param old Old angles, old[i] is read and updated.
+     * @param radius Rotation radius in meters.
+     * @param dt Call interval.
+     * @return Angular speed, 0 for changes up to EPSILON.
+     */
+    public static double eulerRate(double crt, double[] old, int i, double radius, double dt) {
         // for yaw:
         // dt
         // movedAngleYaw = mCrtYaw - mOldYaw
@@ -99,38 +256,14 @@ public class GyroscopeModel extends SensorModel {
         // distanceYaw = movedAngleYaw.toRadians() * rYaw
         // tangentialSpeedYaw = distanceYaw / dt
         // angularSpeedYaw = tangentialSpeedYaw/ rYaw
-        if (Math.abs(crtYaw - mOldYaw) > EPSILON) {
-            double distanceYawDegrees = crtYaw - mOldYaw;
-            double distanceYawRadians = Math.toRadians(distanceYawDegrees)
-                    * mRadiusYaw;
-            double tangentialSpeed = distanceYawRadians / dt;
-            mInstantSpeedYaw = tangentialSpeed / mRadiusYaw;
-            mOldYaw += distanceYawDegrees / 20;
-        } else {
-            mInstantSpeedYaw = 0;
-        }
-
-        if (Math.abs(crtPitch - mOldPitch) > EPSILON) {
-            double distancePitchDegrees = crtPitch - mOldPitch;
-            double distancePitchRadians = Math.toRadians(distancePitchDegrees)
-                    * mRadiusPitch;
-            double tangentialSpeed = distancePitchRadians / dt;
-            mInstantSpeedPitch = tangentialSpeed / mRadiusPitch;
-            mOldPitch += distancePitchDegrees / 20;
-        } else {
-            mInstantSpeedPitch = 0;
-        }
-
-        if (Math.abs(crtRoll - mOldRoll) > EPSILON) {
-            double distanceRollDegrees = crtRoll - mOldRoll;
-            double distanceRollRadians = Math.toRadians(distanceRollDegrees)
-                    * mRadiusRoll;
-            double tangentialSpeed = distanceRollRadians / dt;
-            mInstantSpeedRoll = tangentialSpeed / mRadiusRoll;
-            mOldRoll += distanceRollDegrees / 20;
-        } else {
-            mInstantSpeedRoll = 0;
+        if (Math.abs(crt - old[i]) > EPSILON) {
+            double distanceDegrees = crt - old[i];
+            double distanceRadians = Math.toRadians(distanceDegrees) * radius;
+            double tangentialSpeed = distanceRadians / dt;
+            old[i] += distanceDegrees / 20;
+            return tangentialSpeed / radius;
         }
+        return 0;
     }
 
 }
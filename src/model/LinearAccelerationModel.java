@@ -0,0 +1,100 @@
+package model;
+
+import utils.Vector;
+
+import java.io.PrintWriter;
+
+/**
+ * Virtual linear acceleration sensor: the acceleration of the device in
+ * device coordinates without gravity, i.e. the accelerometer minus the
+ * gravity sensor.
+ *
+ * The engine sets the input from the rotation it already computed for the
+ * accelerometer, so this sensor costs no rotation of its own.
+ */
+public class LinearAccelerationModel extends SensorModel {
+
+    /** Current read-out value of linear acceleration x-component. */
+    private double mReadLinearX;
+    /** Current read-out value of linear acceleration y-component. */
+    private double mReadLinearY;
+    /** Current read-out value of linear acceleration z-component. */
+    private double mReadLinearZ;
+
+    /** Internal state value of linear acceleration x-component. */
+    private double mLinearX;
+    /** Internal state value of linear acceleration y-component. */
+    private double mLinearY;
+    /** Internal state value of linear acceleration z-component. */
+    private double mLinearZ;
+
+    @Override
+    protected void addFilterSample() {
+        mFilter.add(mLinearX, mLinearY, mLinearZ);
+    }
+
+    @Override
+    protected void updateReadValues() {
+        if (mFilter == null || !mFilter.read(mReadValues)) {
+            // Only take current value
+            mReadValues[0] = mLinearX;
+            mReadValues[1] = mLinearY;
+            mReadValues[2] = mLinearZ;
+        }
+        applyMeasurementErrors(mReadValues);
+        mReadLinearX = mReadValues[0];
+        mReadLinearY = mReadValues[1];
+        mReadLinearZ = mReadValues[2];
+        publishReadout(mReadLinearX, mReadLinearY, mReadLinearZ);
+    }
+
+    @Override
+    public String getName() {
+        return LINEAR_ACCELERATION;
+    }
+
+    @Override
+    public int getType() {
+        return TYPE_LINEAR_ACCELERATION;
+    }
+
+    @Override
+    public int getNumValues() {
+        return 3;
+    }
+
+    @Override
+    public void getReadValues(double[] values) {
+        values[0] = mReadLinearX;
+        values[1] = mReadLinearY;
+        values[2] = mReadLinearZ;
+    }
+
+    @Override
+    public void getNumSensorValues(PrintWriter out) {
+        out.println("3");
+    }
+
+    @Override
+    public void printSensorData(PrintWriter out) {
+        out.println(mReadLinearX + ":" + mReadLinearY + ":" + mReadLinearZ);
+    }
+
+    public void setLinearAcceleration(Vector vec) {
+        mLinearX = vec.x;
+        mLinearY = vec.y;
+        mLinearZ = vec.z;
+    }
+
+    public double getReadLinearAccelerationX() {
+        return mReadLinearX;
+    }
+
+    public double getReadLinearAccelerationY() {
+        return mReadLinearY;
+    }
+
+    public double getReadLinearAccelerationZ() {
+        return mReadLinearZ;
+    }
+}
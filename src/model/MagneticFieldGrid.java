@@ -0,0 +1,156 @@
+package model;
+
+/**
+ * Geomagnetic field of a WorldMagneticModel at one date, precomputed on a
+ * regular latitude, longitude and altitude grid.
+ *
+ * Building the grid runs the full spherical harmonic expansion once per
+ * node; afterwards a lookup is a trilinear interpolation between the eight
+ * surrounding nodes, some 25 times faster than a degree-12 expansion. With a
+ * 1 degree grid the interpolation error is in the order of tens of nT, below
+ * the uncertainty of the WMM itself (about 100 nT) and the resolution of a
+ * consumer magnetometer; halving the step quarters it. Altitude levels
+ * should be a few tens of km apart at most.
+ *
+ * The nodes are kept in one array per component, indexed by altitude, then
+ * latitude, then longitude. The grid is immutable once built and may be
+ * shared by any number of threads.
+ */
+public class MagneticFieldGrid {
+
+    private final double mYear;
+    private final double mStep;
+    private final int mLatitudes;
+    private final int mLongitudes;
+    private final double mMinAltitude;
+    private final double mAltitudeStep;
+    private final int mAltitudes;
+
+    private final float[] mNorth;
+    private final float[] mEast;
+    private final float[] mDown;
+
+    /**
+     * Evaluates the model at every node.
+     *
+     * @param model Field model.
+     * @param year Date of the field as decimal year.
+     * @param step Spacing of latitudes and longitudes in degrees; must
+     *            divide 180.
+     * @param minAltitude Lowest altitude above the ellipsoid in km.
+     * @param maxAltitude Highest altitude in km.
+     * @param altitudes Number of altitude levels, at least 1; with 1 the
+     *            field of minAltitude is used at every altitude.
+     */
+    public MagneticFieldGrid(WorldMagneticModel model, double year, double step,
+                             double minAltitude, double maxAltitude, int altitudes) {
+        double cells = 180 / step;
+        if (!(step > 0) || Math.abs(cells - Math.rint(cells)) > 1e-9) {
+            throw new IllegalArgumentException("Step must divide 180 degrees: " + step);
+        }
+        if (altitudes < 1 || (altitudes > 1 && !(maxAltitude > minAltitude))) {
+            throw new IllegalArgumentException("Bad altitude range " + minAltitude + ".."
+                    + maxAltitude + " in " + altitudes + " levels");
+        }
+        mYear = year;
+        mStep = step;
+        mLatitudes = (int) Math.rint(cells) + 1;
+        // -180 to 180, the last column repeats the first
+        mLongitudes = 2 * (mLatitudes - 1) + 1;
+        mMinAltitude = minAltitude;
+        mAltitudes = altitudes;
+        mAltitudeStep = altitudes > 1 ? (maxAltitude - minAltitude) / (altitudes - 1) : 1;
+
+        int size = mAltitudes * mLatitudes * mLongitudes;
+        mNorth = new float[size];
+        mEast = new float[size];
+        mDown = new float[size];
+
+        double[] field = new double[3];
+        int i = 0;
+        for (int a = 0; a < mAltitudes; a++) {
+            double altitude = minAltitude + a * mAltitudeStep;
+            for (int lat = 0; lat < mLatitudes; lat++) {
+                double latitude = -90 + lat * step;
+                for (int lon = 0; lon < mLongitudes; lon++) {
+                    if (lon == mLongitudes - 1) {
+                        // 180 degrees is -180 degrees
+                        int first = i - lon;
+                        mNorth[i] = mNorth[first];
+                        mEast[i] = mEast[first];
+                        mDown[i] = mDown[first];
+                    } else {
+                        model.evaluate(latitude, -180 + lon * step, altitude, year, field);
+                        mNorth[i] = (float) field[0];
+                        mEast[i] = (float) field[1];
+                        mDown[i] = (float) field[2];
+                    }
+                    i++;
+                }
+            }
+        }
+    }
+
+    public double getYear() {
+        return mYear;
+    }
+
+    public double getStep() {
+        return mStep;
+    }
+
+    /**
+     * @return Number of nodes of the grid.
+     */
+    public int size() {
+        return mNorth.length;
+    }
+
+    /**
+     * Interpolates the field at a position. Altitudes outside the grid use
+     * the nearest level.
+     *
+     * @param latitude Geodetic latitude in degrees, -90 to 90.
+     * @param longitude Longitude in degrees, any value.
+     * @param altitude Height above the ellipsoid in km.
+     * @param field Receives the north, east and down components in nT.
+     */
+    public void get(double latitude, double longitude, double altitude, double[] field) {
+        double latIndex = (Math.max(-90, Math.min(90, latitude)) + 90) / mStep;
+        double wrapped = longitude - 360 * Math.floor((longitude + 180) / 360);
+        double lonIndex = (wrapped + 180) / mStep;
+        double altIndex = Math.max(0, Math.min(mAltitudes - 1, (altitude - mMinAltitude) / mAltitudeStep));
+
+        int lat0 = Math.min((int) latIndex, mLatitudes - 2);
+        int lon0 = Math.min((int) lonIndex, mLongitudes - 2);
+        int alt0 = Math.min((int) altIndex, Math.max(0, mAltitudes - 2));
+        double tLat = latIndex - lat0;
+        double tLon = lonIndex - lon0;
+        double tAlt = altIndex - alt0;
+
+        int rowStride = mLongitudes;
+        int levelStride = mLatitudes * mLongitudes;
+        int i000 = alt0 * levelStride + lat0 * rowStride + lon0;
+        int i100 = mAltitudes > 1 ? i000 + levelStride : i000;
+
+        field[0] = interpolate(mNorth, i000, i100, rowStride, tLat, tLon, tAlt);
+        field[1] = interpolate(mEast, i000, i100, rowStride, tLat, tLon, tAlt);
+        field[2] = interpolate(mDown, i000, i100, rowStride, tLat, tLon, tAlt);
+    }
+
+    private static double interpolate(float[] v, int i000, int i100, int rowStride,
+                                      double tLat, double tLon, double tAlt) {
+        double lower = bilinear(v, i000, rowStride, tLat, tLon);
+        if (tAlt == 0) {
+            return lower;
+        }
+        double upper = bilinear(v, i100, rowStride, tLat, tLon);
+        return lower + (upper - lower) * tAlt;
+    }
+
+    private static double bilinear(float[] v, int i, int rowStride, double tLat, double tLon) {
+        double south = v[i] + (v[i + 1] - v[i]) * tLon;
+        double north = v[i + rowStride] + (v[i + rowStride + 1] - v[i + rowStride]) * tLon;
+        return south + (north - south) * tLat;
+    }
+}
@@ -2,6 +2,8 @@ package model;
 
 import utils.Vector;
 
+import java.io.PrintWriter;
+
 public class MagneticFieldModel extends SensorModel {
 
     /** Current read-out value of compass x-component. */
@@ -11,15 +13,6 @@ public class MagneticFieldModel extends SensorModel {
     /** Current read-out value of compass z-component. */
     private double mReadCompassZ;
 
-    /** Partial read-out value of compass x-component. */
-    private double mPartialCompassX;
-    /** Partial read-out value of compass y-component. */
-    private double mPartialCompassY;
-    /** Partial read-out value of compass z-component. */
-    private double mPartialCompassZ;
-    /** Number of summands in partial sum for compass. */
-    private int mPartialCompassN;
-
     /** Internal state value of compass x-component. */
     private double mCompassX;
     /** Internal state value of compass y-component. */
@@ -39,44 +32,55 @@ public class MagneticFieldModel extends SensorModel {
     }
 
     @Override
-    public void updateSensorReadoutValues() {
-        long currentTime = System.currentTimeMillis();
-        // Form the average
-        if (mAverage) {
-            mPartialCompassX += mCompassX;
-            mPartialCompassY += mCompassY;
-            mPartialCompassZ += mCompassZ;
-            mPartialCompassN++;
-        }
+    protected void addFilterSample() {
+        mFilter.add(mCompassX, mCompassY, mCompassZ);
+    }
 
-        // Update
-        if (currentTime >= mNextUpdate) {
-            mNextUpdate += mUpdateDuration;
-            if (mNextUpdate < currentTime) {
-                // Don't lag too much behind.
-                // If we are too slow, then we are too slow.
-                mNextUpdate = currentTime;
-            }
-
-            if (mAverage) {
-                // form average
-                mReadCompassX = mPartialCompassX / mPartialCompassN;
-                mReadCompassY = mPartialCompassY / mPartialCompassN;
-                mReadCompassZ = mPartialCompassZ / mPartialCompassN;
-
-                // reset average
-                mPartialCompassX = 0;
-                mPartialCompassY = 0;
-                mPartialCompassZ = 0;
-                mPartialCompassN = 0;
-
-            } else {
-                // Only take current value
-                mReadCompassX = mCompassX;
-                mReadCompassY = mCompassY;
-                mReadCompassZ = mCompassZ;
-            }
+    @Override
+    protected void updateReadValues() {
+        if (mFilter == null || !mFilter.read(mReadValues)) {
+            // Only take current value
+            mReadValues[0] = mCompassX;
+            mReadValues[1] = mCompassY;
+            mReadValues[2] = mCompassZ;
         }
+        applyMeasurementErrors(mReadValues);
+        mReadCompassX = mReadValues[0];
+        mReadCompassY = mReadValues[1];
+        mReadCompassZ = mReadValues[2];
+        publishReadout(mReadCompassX, mReadCompassY, mReadCompassZ);
+    }
+
+    @Override
+    public String getName() {
+        return MAGNETIC_FIELD;
+    }
+
+    @Override
+    public int getType() {
+        return TYPE_MAGNETIC_FIELD;
+    }
+
+    @Override
+    public int getNumValues() {
+        return 3;
+    }
+
+    @Override
+    public void getReadValues(double[] values) {
+        values[0] = mReadCompassX;
+        values[1] = mReadCompassY;
+        values[2] = mReadCompassZ;
+    }
+
+    @Override
+    public void getNumSensorValues(PrintWriter out) {
+        out.println("3");
+    }
+
+    @Override
+    public void printSensorData(PrintWriter out) {
+        out.println(mReadCompassX + ":" + mReadCompassY + ":" + mReadCompassZ);
     }
 
     public void setCompass(Vector vec) {
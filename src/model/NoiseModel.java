@@ -0,0 +1,152 @@
+package model;
+
+import utils.ZigguratGaussian;
+
+import java.util.SplittableRandom;
+
+/**
+ * Measurement errors of a three-axis sensor, added to every read-out:
+ *
+ * - white noise, drawn independently for every read-out;
+ * - bias instability, a first-order Gauss-Markov process per axis that
+ *   wanders around zero with the given standard deviation and correlation
+ *   time;
+ * - random walk drift per axis, whose standard deviation grows with the
+ *   square root of the elapsed time.
+ *
+ * Each model owns its generator, so sensors and devices on different threads
+ * never share one, and a model created from the same seed produces the same
+ * errors for the same read-out time stamps, bit for bit. split() derives
+ * independent generators for further sensors or devices from one seed.
+ */
+public class NoiseModel {
+
+    private final SplittableRandom mRandom;
+
+    private double mWhiteNoise;
+    private double mBiasInstability;
+    private double mBiasCorrelationSeconds = 1;
+    private double mRandomWalk;
+
+    // per-axis state
+    private final double[] mBias = new double[3];
+    private final double[] mWalk = new double[3];
+    private long mLastTimestamp;
+    private boolean mStarted;
+
+    // Steps for the time between read-outs mStepDt, in seconds
+    private double mStepDt = Double.NaN;
+    private double mBiasDecay;
+    private double mBiasStep;
+    private double mWalkStep;
+
+    /**
+     * Creates a model without any errors; set them with the setters.
+     *
+     * @param seed Seed of the generator.
+     */
+    public NoiseModel(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    private NoiseModel(SplittableRandom random) {
+        mRandom = random;
+    }
+
+    /**
+     * @return A model with the same error parameters and an independent
+     *         generator split off this one.
+     */
+    public NoiseModel split() {
+        NoiseModel noise = new NoiseModel(mRandom.split());
+        noise.mWhiteNoise = mWhiteNoise;
+        noise.mBiasInstability = mBiasInstability;
+        noise.mBiasCorrelationSeconds = mBiasCorrelationSeconds;
+        noise.mRandomWalk = mRandomWalk;
+        return noise;
+    }
+
+    /**
+     * @param sigma Standard deviation of the white noise, in sensor units.
+     */
+    public void setWhiteNoise(double sigma) {
+        mWhiteNoise = sigma;
+    }
+
+    /**
+     * @param sigma Standard deviation of the bias, in sensor units.
+     * @param correlationSeconds Correlation time of the bias in seconds.
+     */
+    public void setBiasInstability(double sigma, double correlationSeconds) {
+        if (correlationSeconds <= 0) {
+            throw new IllegalArgumentException("Bad correlation time: " + correlationSeconds);
+        }
+        mBiasInstability = sigma;
+        mBiasCorrelationSeconds = correlationSeconds;
+        mStepDt = Double.NaN;
+    }
+
+    /**
+     * @param sigma Standard deviation of the drift after one second, in
+     *            sensor units.
+     */
+    public void setRandomWalk(double sigma) {
+        mRandomWalk = sigma;
+        mStepDt = Double.NaN;
+    }
+
+    /**
+     * Adds the errors at the given time to three read-out values.
+     *
+     * @param values Read-out values, modified in place.
+     * @param timestamp Time of the read-out in nanoseconds; the bias and
+     *            drift evolve over the time since the previous call.
+     */
+    public void apply(double[] values, long timestamp) {
+        boolean first = !mStarted;
+        double dt = first ? 0 : (timestamp - mLastTimestamp) * 1e-9;
+        mStarted = true;
+        mLastTimestamp = timestamp;
+
+        if (dt != mStepDt) {
+            // read-outs usually come at a fixed period, so this is rare
+            mStepDt = dt;
+            mBiasDecay = 1;
+            mBiasStep = 0;
+            if (mBiasInstability > 0 && dt > 0) {
+                mBiasDecay = Math.exp(-dt / mBiasCorrelationSeconds);
+                mBiasStep = mBiasInstability * Math.sqrt(1 - mBiasDecay * mBiasDecay);
+            }
+            mWalkStep = dt > 0 ? mRandomWalk * Math.sqrt(dt) : 0;
+        }
+        double biasDecay = mBiasDecay;
+        double biasStep = mBiasStep;
+        double walkStep = mWalkStep;
+
+        for (int i = 0; i < 3; i++) {
+            if (first && mBiasInstability > 0) {
+                // turn-on bias from the stationary distribution
+                mBias[i] = mBiasInstability * ZigguratGaussian.next(mRandom);
+            } else if (biasStep > 0) {
+                mBias[i] = mBias[i] * biasDecay + biasStep * ZigguratGaussian.next(mRandom);
+            }
+            if (walkStep > 0) {
+                mWalk[i] += walkStep * ZigguratGaussian.next(mRandom);
+            }
+            double white = mWhiteNoise > 0 ? mWhiteNoise * ZigguratGaussian.next(mRandom) : 0;
+            values[i] += mBias[i] + mWalk[i] + white;
+        }
+    }
+
+    /**
+     * Starts over with a new turn-on bias and no drift. The generator
+     * continues.
+     */
+    public void reset() {
+        for (int i = 0; i < 3; i++) {
+            mBias[i] = 0;
+            mWalk[i] = 0;
+        }
+        mStarted = false;
+    }
+}
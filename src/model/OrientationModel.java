@@ -0,0 +1,121 @@
+package model;
+
+import java.io.PrintWriter;
+
+/**
+ * Virtual orientation sensor: yaw (azimuth), pitch and roll of the device in
+ * degrees, as set by the engine from its current orientation.
+ *
+ * Yaw and roll wrap around at 360 degrees. The read-out filter sees them
+ * unwrapped, each sample continuing from the previous one by less than 180
+ * degrees, so a filter averages 359 and 1 degrees to 0 and not to 180. The
+ * filtered angles are wrapped back next to the current ones.
+ */
+public class OrientationModel extends SensorModel {
+
+    /** Current read-out value of yaw. */
+    private double mReadYaw;
+    /** Current read-out value of pitch. */
+    private double mReadPitch;
+    /** Current read-out value of roll. */
+    private double mReadRoll;
+
+    /** Internal state value of yaw. */
+    private double mYaw;
+    /** Internal state value of pitch. */
+    private double mPitch;
+    /** Internal state value of roll. */
+    private double mRoll;
+
+    // Last yaw and roll added to the filter, unwrapped
+    private double mFilterYaw;
+    private double mFilterRoll;
+
+    @Override
+    protected void addFilterSample() {
+        mFilterYaw = unwrap(mYaw, mFilterYaw);
+        mFilterRoll = unwrap(mRoll, mFilterRoll);
+        mFilter.add(mFilterYaw, mPitch, mFilterRoll);
+    }
+
+    /**
+     * @return The angle plus a multiple of 360 degrees that is closest to
+     *         the reference.
+     */
+    private static double unwrap(double angle, double reference) {
+        return reference + Math.IEEEremainder(angle - reference, 360);
+    }
+
+    @Override
+    protected void updateReadValues() {
+        if (mFilter != null && mFilter.read(mReadValues)) {
+            mReadValues[0] = unwrap(mReadValues[0], mYaw);
+            mReadValues[2] = unwrap(mReadValues[2], mRoll);
+        } else {
+            // Only take current value
+            mReadValues[0] = mYaw;
+            mReadValues[1] = mPitch;
+            mReadValues[2] = mRoll;
+        }
+        applyMeasurementErrors(mReadValues);
+        mReadYaw = mReadValues[0];
+        mReadPitch = mReadValues[1];
+        mReadRoll = mReadValues[2];
+        publishReadout(mReadYaw, mReadPitch, mReadRoll);
+    }
+
+    @Override
+    public String getName() {
+        return ORIENTATION;
+    }
+
+    @Override
+    public int getType() {
+        return TYPE_ORIENTATION;
+    }
+
+    @Override
+    public int getNumValues() {
+        return 3;
+    }
+
+    @Override
+    public void getReadValues(double[] values) {
+        values[0] = mReadYaw;
+        values[1] = mReadPitch;
+        values[2] = mReadRoll;
+    }
+
+    @Override
+    public void getNumSensorValues(PrintWriter out) {
+        out.println("3");
+    }
+
+    @Override
+    public void printSensorData(PrintWriter out) {
+        out.println(mReadYaw + ":" + mReadPitch + ":" + mReadRoll);
+    }
+
+    /**
+     * @param yaw yaw in degrees.
+     * @param pitch pitch in degrees.
+     * @param roll roll in degrees.
+     */
+    public void setOrientation(double yaw, double pitch, double roll) {
+        mYaw = yaw;
+        mPitch = pitch;
+        mRoll = roll;
+    }
+
+    public double getReadYaw() {
+        return mReadYaw;
+    }
+
+    public double getReadPitch() {
+        return mReadPitch;
+    }
+
+    public double getReadRoll() {
+        return mReadRoll;
+    }
+}
@@ -0,0 +1,38 @@
+package model;
+
+/**
+ * Filter stage between the simulated values of a three-axis sensor and its
+ * read-out.
+ *
+ * The sensor adds its current values once per simulation step and reads the
+ * filter whenever a read-out is due, so the simulation can run far faster
+ * than the read-out rate. Implementations keep their history in primitive
+ * ring buffers and neither allocate nor loop over the history per sample.
+ */
+public interface ReadoutFilter {
+
+    /**
+     * Adds one sample.
+     */
+    void add(double x, double y, double z);
+
+    /**
+     * Produces the filtered values for a read-out.
+     *
+     * @param values Receives x, y and z.
+     * @return false if the filter has no output yet; the sensor then reads
+     *         out its current values.
+     */
+    boolean read(double[] values);
+
+    /**
+     * Forgets all samples.
+     */
+    void reset();
+
+    /**
+     * @return A filter of the same kind and configuration without samples,
+     *         e.g. for a fourth channel of a sensor.
+     */
+    ReadoutFilter copy();
+}
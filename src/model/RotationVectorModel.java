@@ -0,0 +1,156 @@
+package model;
+
+import utils.Quaternion;
+
+import java.io.PrintWriter;
+
+/**
+ * Virtual rotation vector sensor: the rotation from device coordinates to
+ * the lab frame as the unit quaternion (x, y, z, w), where (x, y, z) is the
+ * rotation axis times sin(angle / 2) and w = cos(angle / 2) >= 0.
+ *
+ * The read-out filter averages the whole quaternion: x, y and z in the
+ * filter set by setReadoutFilter() and w in a copy of it. Each sample is
+ * taken on the same side as the previous one (q and -q are the same
+ * rotation), so a rotation through 180 degrees, where w changes sign, does
+ * not average to zero. The filtered quaternion is normalized and brought
+ * back to w >= 0. The measurement errors act on x, y and z; w is derived
+ * from them, so the read-out stays a unit quaternion.
+ */
+public class RotationVectorModel extends SensorModel {
+
+    /** Current read-out value of the rotation vector x-component. */
+    private double mReadX;
+    /** Current read-out value of the rotation vector y-component. */
+    private double mReadY;
+    /** Current read-out value of the rotation vector z-component. */
+    private double mReadZ;
+    /** Current read-out value of the scalar component. */
+    private double mReadW = 1;
+
+    /** Internal state value of the rotation vector x-component. */
+    private double mX;
+    /** Internal state value of the rotation vector y-component. */
+    private double mY;
+    /** Internal state value of the rotation vector z-component. */
+    private double mZ;
+    /** Internal state value of the scalar component, >= 0. */
+    private double mW = 1;
+
+    /** Filter of w, a copy of mFilter. */
+    private ReadoutFilter mScalarFilter;
+    private final double[] mScalarValues = new double[3];
+    // Last sample added to the filters
+    private double mFilterX;
+    private double mFilterY;
+    private double mFilterZ;
+    private double mFilterW = 1;
+
+    @Override
+    public void setReadoutFilter(ReadoutFilter filter) {
+        super.setReadoutFilter(filter);
+        mScalarFilter = filter != null ? filter.copy() : null;
+    }
+
+    @Override
+    protected void addFilterSample() {
+        // stay on the side of the previous sample
+        double dot = mX * mFilterX + mY * mFilterY + mZ * mFilterZ + mW * mFilterW;
+        double sign = dot < 0 ? -1 : 1;
+        mFilterX = sign * mX;
+        mFilterY = sign * mY;
+        mFilterZ = sign * mZ;
+        mFilterW = sign * mW;
+        mFilter.add(mFilterX, mFilterY, mFilterZ);
+        mScalarFilter.add(mFilterW, 0, 0);
+    }
+
+    @Override
+    protected void updateReadValues() {
+        if (mFilter != null && mFilter.read(mReadValues) && mScalarFilter.read(mScalarValues)) {
+            double w = mScalarValues[0];
+            double norm = Math.sqrt(mReadValues[0] * mReadValues[0] + mReadValues[1] * mReadValues[1]
+                    + mReadValues[2] * mReadValues[2] + w * w);
+            // back to w >= 0
+            double scale = (w < 0 ? -1 : 1) / norm;
+            mReadValues[0] *= scale;
+            mReadValues[1] *= scale;
+            mReadValues[2] *= scale;
+        } else {
+            // Only take current value
+            mReadValues[0] = mX;
+            mReadValues[1] = mY;
+            mReadValues[2] = mZ;
+        }
+        applyMeasurementErrors(mReadValues);
+        mReadX = mReadValues[0];
+        mReadY = mReadValues[1];
+        mReadZ = mReadValues[2];
+        mReadW = Math.sqrt(Math.max(0, 1 - mReadX * mReadX - mReadY * mReadY - mReadZ * mReadZ));
+        mReadout.write(mReadX, mReadY, mReadZ, mReadW, mReadTimestamp);
+    }
+
+    @Override
+    public String getName() {
+        return ROTATION_VECTOR;
+    }
+
+    @Override
+    public int getType() {
+        return TYPE_ROTATION_VECTOR;
+    }
+
+    @Override
+    public int getNumValues() {
+        return 4;
+    }
+
+    @Override
+    public void getReadValues(double[] values) {
+        values[0] = mReadX;
+        values[1] = mReadY;
+        values[2] = mReadZ;
+        values[3] = mReadW;
+    }
+
+    @Override
+    public void getNumSensorValues(PrintWriter out) {
+        out.println("4");
+    }
+
+    @Override
+    public void printSensorData(PrintWriter out) {
+        out.println(mReadX + ":" + mReadY + ":" + mReadZ + ":" + mReadW);
+    }
+
+    /**
+     * Sets the rotation vector from the engine orientation.
+     *
+     * @param orientation Rotation from the lab frame to the device frame,
+     *            normalized; the rotation vector is its inverse.
+     */
+    public void setRotation(Quaternion orientation) {
+        // inverse of a unit quaternion: negate the vector part; keep w >= 0
+        double sign = orientation.w < 0 ? 1 : -1;
+        mX = sign * orientation.x;
+        mY = sign * orientation.y;
+        mZ = sign * orientation.z;
+        mW = Math.abs(orientation.w);
+    }
+
+    public double getReadRotationVectorX() {
+        return mReadX;
+    }
+
+    public double getReadRotationVectorY() {
+        return mReadY;
+    }
+
+    public double getReadRotationVectorZ() {
+        return mReadZ;
+    }
+
+    public double getReadRotationVectorW() {
+        return mReadW;
+    }
+}
@@ -0,0 +1,202 @@
+package model;
+
+/**
+ * Calibration errors of a three-axis sensor: per-axis scale factors,
+ * cross-axis misalignment, offsets, saturation at the measurement range and
+ * quantization to the ADC resolution.
+ *
+ * Scale, misalignment and offset are fused into one affine transform
+ * y = A * x + b whenever a parameter changes, so applying the whole model
+ * costs nine multiply-adds, a rounding and a clamp per sample. Quantized
+ * values are clamped as ADC codes, so they never leave the range.
+ */
+public class SensorErrorModel {
+
+    // configured parameters
+    private double mScaleX = 1;
+    private double mScaleY = 1;
+    private double mScaleZ = 1;
+    /** Misalignment matrix, row-major, identity for perfect axes. */
+    private final double[] mMisalignment = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+    private double mOffsetX;
+    private double mOffsetY;
+    private double mOffsetZ;
+    private double mRange = Double.POSITIVE_INFINITY;
+    private double mResolution;
+    /** ADC bits of setResolutionBits(), 0 if the resolution was set directly. */
+    private int mBits;
+
+    // fused transform: A = diag(scale) * misalignment
+    private double mA00 = 1, mA01, mA02;
+    private double mA10, mA11 = 1, mA12;
+    private double mA20, mA21, mA22 = 1;
+    private double mInverseResolution;
+    // output codes, output = code * mResolution
+    private double mMinCode = Double.NEGATIVE_INFINITY;
+    private double mMaxCode = Double.POSITIVE_INFINITY;
+
+    /**
+     * Sets the scale factor of each axis, 1 for no error.
+     */
+    public void setScale(double x, double y, double z) {
+        mScaleX = x;
+        mScaleY = y;
+        mScaleZ = z;
+        fuse();
+    }
+
+    /**
+     * Sets the cross-axis misalignment. Row i gives how much of each true
+     * axis the sensor axis i measures; the identity means perfect axes.
+     *
+     * @param matrix Nine elements, row-major.
+     */
+    public void setMisalignment(double[] matrix) {
+        if (matrix.length != 9) {
+            throw new IllegalArgumentException("Misalignment needs 9 elements, got " + matrix.length);
+        }
+        System.arraycopy(matrix, 0, mMisalignment, 0, 9);
+        fuse();
+    }
+
+    /**
+     * Sets the misalignment from small angles between the sensor axes and
+     * the true axes.
+     *
+     * @param xy Angle of the x-axis towards y, in radians; likewise for the
+     *            others.
+     */
+    public void setMisalignment(double xy, double xz, double yx, double yz, double zx, double zy) {
+        setMisalignment(new double[]{
+                1, xy, xz,
+                yx, 1, yz,
+                zx, zy, 1});
+    }
+
+    /**
+     * Sets the offset added to each axis after scaling, in sensor units.
+     */
+    public void setOffset(double x, double y, double z) {
+        mOffsetX = x;
+        mOffsetY = y;
+        mOffsetZ = z;
+    }
+
+    /**
+     * @param range Largest magnitude the sensor can report; larger values
+     *            saturate. Infinity for no limit.
+     */
+    public void setRange(double range) {
+        if (!(range > 0)) {
+            throw new IllegalArgumentException("Bad range: " + range);
+        }
+        mRange = range;
+        if (mBits > 0) {
+            setResolutionBits(mBits);
+        } else {
+            updateCodes();
+        }
+    }
+
+    /**
+     * @param resolution Value of one ADC step, or 0 for no quantization.
+     *            The output codes are limited to the steps within the range.
+     */
+    public void setResolution(double resolution) {
+        if (resolution < 0) {
+            throw new IllegalArgumentException("Negative resolution: " + resolution);
+        }
+        mBits = 0;
+        mResolution = resolution;
+        mInverseResolution = resolution > 0 ? 1 / resolution : 0;
+        updateCodes();
+    }
+
+    /**
+     * Sets the resolution of a two's complement ADC spanning the range with
+     * the given number of bits: 2^bits codes from -2^(bits-1) to
+     * 2^(bits-1)-1, one step being 2 * range / 2^bits. Call after
+     * setRange(); a later setRange() keeps the number of bits.
+     */
+    public void setResolutionBits(int bits) {
+        if (Double.isInfinite(mRange)) {
+            throw new IllegalStateException("Set the range before the resolution in bits");
+        }
+        if (bits < 1 || bits > 62) {
+            throw new IllegalArgumentException("Bad number of bits: " + bits);
+        }
+        double half = 1L << (bits - 1);
+        mBits = bits;
+        mResolution = mRange / half;
+        mInverseResolution = half / mRange;
+        mMinCode = -half;
+        mMaxCode = half - 1;
+    }
+
+    private void updateCodes() {
+        if (mInverseResolution == 0) {
+            return;
+        }
+        mMaxCode = Math.floor(mRange * mInverseResolution);
+        mMinCode = -mMaxCode;
+    }
+
+    public double getRange() {
+        return mRange;
+    }
+
+    public double getResolution() {
+        return mResolution;
+    }
+
+    private void fuse() {
+        double[] m = mMisalignment;
+        mA00 = mScaleX * m[0];
+        mA01 = mScaleX * m[1];
+        mA02 = mScaleX * m[2];
+        mA10 = mScaleY * m[3];
+        mA11 = mScaleY * m[4];
+        mA12 = mScaleY * m[5];
+        mA20 = mScaleZ * m[6];
+        mA21 = mScaleZ * m[7];
+        mA22 = mScaleZ * m[8];
+    }
+
+    /**
+     * Applies the errors to three values in place.
+     */
+    public void apply(double[] values) {
+        double x = values[0];
+        double y = values[1];
+        double z = values[2];
+        values[0] = output(mA00 * x + mA01 * y + mA02 * z + mOffsetX);
+        values[1] = output(mA10 * x + mA11 * y + mA12 * z + mOffsetY);
+        values[2] = output(mA20 * x + mA21 * y + mA22 * z + mOffsetZ);
+    }
+
+    /**
+     * Applies the errors in place to samples from to to-1, given as one
+     * array per axis.
+     */
+    public void apply(double[] xs, double[] ys, double[] zs, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            double z = zs[i];
+            xs[i] = output(mA00 * x + mA01 * y + mA02 * z + mOffsetX);
+            ys[i] = output(mA10 * x + mA11 * y + mA12 * z + mOffsetY);
+            zs[i] = output(mA20 * x + mA21 * y + mA22 * z + mOffsetZ);
+        }
+    }
+
+    /**
+     * Saturates and quantizes one value.
+     */
+    private double output(double value) {
+        if (mInverseResolution == 0) {
+            return Math.max(-mRange, Math.min(mRange, value));
+        }
+        double code = Math.rint(value * mInverseResolution);
+        return Math.max(mMinCode, Math.min(mMaxCode, code)) * mResolution;
+    }
+}
@@ -1,7 +1,8 @@
 package model;
 
+import utils.Clock;
+
 import java.io.PrintWriter;
-import java.util.Random;
 
 public abstract class SensorModel {
     public static final int POZ_ACCELEROMETER = 0;
@@ -73,8 +74,6 @@ public abstract class SensorModel {
     final static public String PLUSMINUS = "\u00b1";
     final static public String SQUARED = "\u00b2"; // superscript two
 
-    private static Random mRandomGenerator = new Random();
-
     /** Whether the sensor is enable or not. */
     protected boolean mEnabled;
 
@@ -84,9 +83,6 @@ public abstract class SensorModel {
     /** Whether to form an average at each update */
     protected boolean mUpdateAverage;
 
-    // Random contribution
-    protected float mRandom;
-
     /** for measuring updates: */
     protected int mUpdateEmulatorCount;
     protected long mUpdateEmulatorTime;
@@ -96,6 +92,8 @@ public abstract class SensorModel {
      * the update rate.
      */
     protected long mUpdateDuration;
+    /** Same as mUpdateDuration, in nanoseconds. */
+    protected long mUpdatePeriodNanos;
     /**
      * Whether to form the average over the last duration when reading out
      * sensors. Alternative is to just take the current value.
@@ -103,25 +101,69 @@ public abstract class SensorModel {
     protected boolean mAverage;
 
     /**
-     * Time of next update required. The time is compared to
-     * System.currentTimeMillis().
+     * Filter between the simulated values and the read-out, or null to read
+     * out the current values.
+     */
+    protected ReadoutFilter mFilter;
+    /** Measurement errors added to the read-out, or null for none. */
+    protected NoiseModel mNoise;
+    /** Calibration errors applied to the read-out, or null for none. */
+    protected SensorErrorModel mErrorModel;
+    /** Values of the read-out being formed, in the order of getReadValues(). */
+    protected final double[] mReadValues = new double[3];
+
+    /**
+     * Time of next update required, in nanoseconds. The time is compared to
+     * mClock.nanoTime().
      */
     protected long mNextUpdate;
 
+    /** Time of the last read-out update, in nanoseconds. */
+    protected long mReadTimestamp;
+
+    /** Source of time for read-out updates. */
+    protected Clock mClock;
+
+    /** Last read-out, for threads other than the one updating the sensor. */
+    protected final SensorReadout mReadout = new SensorReadout();
+
     public SensorModel() {
         mEnabled = false;
+        mClock = Clock.WALL;
 
         mUpdateEmulatorCount = 0;
         mUpdateEmulatorTime = System.currentTimeMillis();
         setUpdateRates();
     }
 
+    /**
+     * @return The name of the sensor, e.g. ACCELEROMETER.
+     */
+    public abstract String getName();
+
+    /**
+     * @return The type of the sensor, e.g. TYPE_ACCELEROMETER.
+     */
+    public abstract int getType();
+
+    /**
+     * @return The number of read-out values of the sensor.
+     */
+    public abstract int getNumValues();
+
+    /**
+     * Copies the current read-out values into an array.
+     *
+     * @param values Array of at least getNumValues() elements.
+     */
+    public abstract void getReadValues(double[] values);
+
     /**
      * Prints into the output stream the number of output values for the sensor.
      *
      * @param out
      */
-//    public abstract void getNumSensorValues(PrintWriter out);
+    public abstract void getNumSensorValues(PrintWriter out);
 
     /**
      * It is used in communication with the emulator, when sending sensor
@@ -129,7 +171,7 @@ public abstract class SensorModel {
      *
      * @param out
      */
-//    public abstract void printSensorData(PrintWriter out);
+    public abstract void printSensorData(PrintWriter out);
 
     /**
      *
@@ -141,7 +183,118 @@ public abstract class SensorModel {
      * Sets the next values for the sensor (if the time for next update was
      * reached), by making the average or keeping the current value.
      */
-    public abstract void updateSensorReadoutValues();
+    public void updateSensorReadoutValues() {
+        long currentTime = mClock.nanoTime();
+        // Form the average
+        sampleValues();
+
+        // Update
+        if (isReadoutDue(currentTime)) {
+            updateReadValues();
+        }
+    }
+
+    /**
+     * Adds the current values to the read-out filter, if any. Called once
+     * per simulation step.
+     */
+    public void sampleValues() {
+        if (mFilter != null) {
+            addFilterSample();
+        }
+    }
+
+    /**
+     * Updates the read-out values now, regardless of mNextUpdate. Used when
+     * a scheduler keeps the update deadlines instead of the sensor.
+     *
+     * @param currentTime Time of the read-out in nanoseconds.
+     */
+    public void updateReadout(long currentTime) {
+        mReadTimestamp = currentTime;
+        updateReadValues();
+    }
+
+    /**
+     * Adds the current values to mFilter.
+     */
+    protected abstract void addFilterSample();
+
+    /**
+     * Sets the read-out values to the output of mFilter, or to the current
+     * values if there is no filter or it has no output yet, applies the
+     * measurement errors and publishes them.
+     */
+    protected abstract void updateReadValues();
+
+    /**
+     * Checks whether the read-out values are due for an update, and if so
+     * schedules the next one.
+     *
+     * @param currentTime Current time in nanoseconds.
+     * @return true if the read-out values should be updated now.
+     */
+    protected boolean isReadoutDue(long currentTime) {
+        if (currentTime < mNextUpdate) {
+            return false;
+        }
+        mNextUpdate += mUpdatePeriodNanos;
+        if (mNextUpdate < currentTime) {
+            // Don't lag too much behind.
+            // If we are too slow, then we are too slow.
+            mNextUpdate = currentTime;
+        }
+        mReadTimestamp = currentTime;
+        return true;
+    }
+
+    /**
+     * Adds the noise and then the calibration errors of the current
+     * read-out, if any.
+     */
+    protected void applyMeasurementErrors(double[] values) {
+        if (mNoise != null) {
+            mNoise.apply(values, mReadTimestamp);
+        }
+        if (mErrorModel != null) {
+            mErrorModel.apply(values);
+        }
+    }
+
+    /**
+     * Publishes new read-out values with the time stamp set by
+     * isReadoutDue(), in the order of getReadValues().
+     */
+    protected void publishReadout(double x, double y, double z) {
+        mReadout.write(x, y, z, mReadTimestamp);
+    }
+
+    /**
+     * The read-out getters are only safe on the thread that updates the
+     * sensor. Other threads, such as the user interface or a network server,
+     * take consistent snapshots through the returned readout.
+     *
+     * @return The published read-out of this sensor.
+     */
+    public SensorReadout getReadout() {
+        return mReadout;
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    public void setClock(Clock clock) {
+        mClock = clock;
+        mNextUpdate = 0;
+    }
+
+    /**
+     * @return Time of the last read-out update, in nanoseconds.
+     */
+    public long getReadTimestamp() {
+        return mReadTimestamp;
+    }
 
     public boolean isEnabled() {
         return mEnabled;
@@ -174,8 +327,73 @@ public abstract class SensorModel {
         mUpdateAverage = b;
     }
 
+    public boolean isAverage() {
+        return mAverage;
+    }
+
+    /**
+     * Sets whether read-out values are averaged over the update duration,
+     * by a BlockAverageFilter.
+     */
+    public void setAverage(boolean average) {
+        setReadoutFilter(average ? new BlockAverageFilter() : null);
+    }
+
+    public NoiseModel getNoiseModel() {
+        return mNoise;
+    }
+
+    /**
+     * @param noise Errors added to every read-out, or null for exact
+     *            read-outs.
+     */
+    public void setNoiseModel(NoiseModel noise) {
+        mNoise = noise;
+    }
+
+    public SensorErrorModel getErrorModel() {
+        return mErrorModel;
+    }
+
+    /**
+     * @param errorModel Calibration errors of this device's sensor, or null
+     *            for an ideal sensor.
+     */
+    public void setErrorModel(SensorErrorModel errorModel) {
+        mErrorModel = errorModel;
+    }
+
+    public ReadoutFilter getReadoutFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Sets the filter stage of the read-out, e.g. a SlidingWindowFilter or a
+     * FirDecimatorFilter fed at the simulation rate.
+     *
+     * @param filter Filter, or null to read out the current values.
+     */
+    public void setReadoutFilter(ReadoutFilter filter) {
+        mFilter = filter;
+        mAverage = filter != null;
+    }
+
     public void setUpdateDuration(long value) {
         mUpdateDuration = value;
+        mUpdatePeriodNanos = value * 1000000L;
+    }
+
+    /**
+     * Sets the duration between two updates with sub-millisecond precision.
+     *
+     * @param nanos Duration in nanoseconds, 0 to update on every step.
+     */
+    public void setUpdatePeriodNanos(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Negative update period: " + nanos);
+        }
+        mUpdatePeriodNanos = nanos;
+        mUpdateDuration = nanos / 1000000L;
     }
 
     public long incUpdateEmulatorCount() {
@@ -199,6 +417,13 @@ public abstract class SensorModel {
         return mUpdateDuration;
     }
 
+    /**
+     * @return Duration between two updates in nanoseconds.
+     */
+    public long getUpdatePeriodNanos() {
+        return mUpdatePeriodNanos;
+    }
+
     public void setCurrentUpdateDelay(int updateDelay) {
         mCurrentUpdateDelay = updateDelay;
     }
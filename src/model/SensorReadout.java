@@ -0,0 +1,78 @@
+package model;
+
+/**
+ * Publishes sensor values from one writer thread to any number of reader
+ * threads, without locks and without allocating.
+ *
+ * This is a sequence lock: the writer makes the sequence number odd, stores
+ * the values and makes it even again. A reader copies the values between two
+ * reads of the sequence number and retries if the number was odd or has
+ * changed, so it never sees values of two different read-outs mixed.
+ *
+ * All fields are volatile, which is what the Java 8 memory model needs to
+ * keep the value stores and loads between the two sequence accesses.
+ */
+public class SensorReadout {
+
+    /** Number of values a read-out can hold. */
+    public static final int MAX_VALUES = 4;
+
+    private volatile long mSequence;
+
+    private volatile double mX;
+    private volatile double mY;
+    private volatile double mZ;
+    private volatile double mW;
+    private volatile long mTimestamp;
+
+    /**
+     * Publishes a read-out of up to three values. Must only be called by
+     * one thread.
+     */
+    public void write(double x, double y, double z, long timestamp) {
+        write(x, y, z, 0, timestamp);
+    }
+
+    /**
+     * Publishes a read-out of up to four values. Must only be called by
+     * one thread.
+     */
+    public void write(double x, double y, double z, double w, long timestamp) {
+        long sequence = mSequence;
+        mSequence = sequence + 1;
+        mX = x;
+        mY = y;
+        mZ = z;
+        mW = w;
+        mTimestamp = timestamp;
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * Copies the last published read-out. May be called from any thread.
+     *
+     * @param sample Receives the values, time stamp and sequence number.
+     * @return The sequence number of the copied read-out.
+     */
+    public long read(SensorSample sample) {
+        long sequence;
+        do {
+            sequence = mSequence;
+            sample.x = mX;
+            sample.y = mY;
+            sample.z = mZ;
+            sample.w = mW;
+            sample.timestamp = mTimestamp;
+        } while ((sequence & 1) != 0 || sequence != mSequence);
+        sample.sequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * @return Sequence number of the last published read-out, 0 if there
+     *         was none. Cheaper than read() to check for a new read-out.
+     */
+    public long getSequence() {
+        return mSequence & ~1L;
+    }
+}
@@ -0,0 +1,42 @@
+package model;
+
+/**
+ * Consistent copy of a sensor read-out, filled by SensorReadout.read().
+ *
+ * The values are in the order of SensorModel.getReadValues(); unused values
+ * are 0. A sample is meant to be reused by one consumer thread.
+ */
+public class SensorSample {
+    public double x;
+    public double y;
+    public double z;
+    public double w;
+
+    /** Time of the read-out in nanoseconds of the sensor clock. */
+    public long timestamp;
+
+    /**
+     * Sequence number of the read-out. It grows with every published
+     * read-out, so a consumer can skip samples it has already seen.
+     */
+    public long sequence;
+
+    /**
+     * @param i Index of the value, 0 to SensorReadout.MAX_VALUES - 1.
+     * @return The value with the given index.
+     */
+    public double get(int i) {
+        switch (i) {
+            case 0:
+                return x;
+            case 1:
+                return y;
+            case 2:
+                return z;
+            case 3:
+                return w;
+            default:
+                throw new IndexOutOfBoundsException("Value " + i);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package model;
+
+/**
+ * Average of the last n samples, independent of the read-out rate, so
+ * consecutive read-outs may use overlapping windows.
+ *
+ * The window sums are updated in O(1) per sample. To keep rounding errors
+ * from building up, they are summed afresh from the ring buffer once per
+ * window length, which costs O(1) per sample on average.
+ */
+public class SlidingWindowFilter implements ReadoutFilter {
+
+    private final double[] mX;
+    private final double[] mY;
+    private final double[] mZ;
+    private int mNext;
+    private int mCount;
+
+    private double mSumX;
+    private double mSumY;
+    private double mSumZ;
+
+    /**
+     * @param length Number of samples in the window.
+     */
+    public SlidingWindowFilter(int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Bad window length: " + length);
+        }
+        mX = new double[length];
+        mY = new double[length];
+        mZ = new double[length];
+    }
+
+    public int getLength() {
+        return mX.length;
+    }
+
+    @Override
+    public void add(double x, double y, double z) {
+        int i = mNext;
+        mSumX += x - mX[i];
+        mSumY += y - mY[i];
+        mSumZ += z - mZ[i];
+        mX[i] = x;
+        mY[i] = y;
+        mZ[i] = z;
+        if (mCount < mX.length) {
+            mCount++;
+        }
+        if (++i == mX.length) {
+            i = 0;
+            resum();
+        }
+        mNext = i;
+    }
+
+    private void resum() {
+        double sumX = 0;
+        double sumY = 0;
+        double sumZ = 0;
+        for (int i = 0; i < mX.length; i++) {
+            sumX += mX[i];
+            sumY += mY[i];
+            sumZ += mZ[i];
+        }
+        mSumX = sumX;
+        mSumY = sumY;
+        mSumZ = sumZ;
+    }
+
+    @Override
+    public boolean read(double[] values) {
+        if (mCount == 0) {
+            return false;
+        }
+        values[0] = mSumX / mCount;
+        values[1] = mSumY / mCount;
+        values[2] = mSumZ / mCount;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < mX.length; i++) {
+            mX[i] = 0;
+            mY[i] = 0;
+            mZ[i] = 0;
+        }
+        mNext = 0;
+        mCount = 0;
+        mSumX = 0;
+        mSumY = 0;
+        mSumZ = 0;
+    }
+
+    @Override
+    public ReadoutFilter copy() {
+        return new SlidingWindowFilter(mX.length);
+    }
+}
@@ -0,0 +1,292 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Spherical harmonic model of the main geomagnetic field, such as the World
+ * Magnetic Model (WMM) of degree 12.
+ *
+ * The Gauss coefficients g, h and their secular variation are read from a
+ * coefficient file in the WMM.COF format: a header line with the epoch as
+ * decimal year, then one line "n m g h dg dh" per coefficient in nT and
+ * nT/year, ended by a line of 9s or the end of the file. The model of the
+ * current epoch can be downloaded from NOAA.
+ *
+ * evaluate() runs the full expansion: Schmidt semi-normalized associated
+ * Legendre functions by recursion, the sum over all degrees and orders and
+ * the rotation from geocentric to geodetic coordinates on the WGS-84
+ * ellipsoid. For many lookups build a MagneticFieldGrid from the model.
+ *
+ * A model instance keeps scratch arrays and is not thread-safe.
+ */
+public class WorldMagneticModel {
+
+    /** Geomagnetic reference radius in km. */
+    private static final double REFERENCE_RADIUS = 6371.2;
+    /** WGS-84 semi-major axis in km. */
+    private static final double WGS84_A = 6378.137;
+    /** WGS-84 flattening. */
+    private static final double WGS84_F = 1 / 298.257223563;
+    private static final double WGS84_E2 = WGS84_F * (2 - WGS84_F);
+
+    private final double mEpoch;
+    private final int mDegree;
+
+    // Coefficients indexed by n * (n + 1) / 2 + m
+    private final double[] mG;
+    private final double[] mH;
+    private final double[] mDG;
+    private final double[] mDH;
+
+    // Scratch for evaluate()
+    private final double[] mP;
+    private final double[] mDP;
+    private final double[] mCosM;
+    private final double[] mSinM;
+    /** sqrt(n^2 - m^2), indexed like the coefficients. */
+    private final double[] mRoots;
+
+    /**
+     * @param epoch Epoch of the coefficients as decimal year.
+     * @param degree Highest degree n.
+     * @param g Coefficients g(n, m) in nT, indexed by n * (n + 1) / 2 + m;
+     *            index 0 (n = 0) is unused.
+     * @param h Coefficients h(n, m) in nT, indexed alike.
+     * @param dg Secular variation of g in nT/year, indexed alike.
+     * @param dh Secular variation of h in nT/year, indexed alike.
+     */
+    public WorldMagneticModel(double epoch, int degree, double[] g, double[] h, double[] dg, double[] dh) {
+        if (degree < 1) {
+            throw new IllegalArgumentException("Degree below 1: " + degree);
+        }
+        int size = index(degree, degree) + 1;
+        if (g.length < size || h.length < size || dg.length < size || dh.length < size) {
+            throw new IllegalArgumentException("Degree " + degree + " needs " + size + " coefficients");
+        }
+        mEpoch = epoch;
+        mDegree = degree;
+        mG = g.clone();
+        mH = h.clone();
+        mDG = dg.clone();
+        mDH = dh.clone();
+
+        mP = new double[size];
+        mDP = new double[size];
+        mCosM = new double[degree + 1];
+        mSinM = new double[degree + 1];
+        mRoots = new double[size];
+        for (int n = 0; n <= degree; n++) {
+            for (int m = 0; m <= n; m++) {
+                mRoots[index(n, m)] = Math.sqrt(n * n - m * m);
+            }
+        }
+    }
+
+    /**
+     * Reads a model from a coefficient file in the WMM.COF format.
+     *
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public static WorldMagneticModel load(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String header = reader.readLine();
+            if (header == null || header.trim().isEmpty()) {
+                throw new IOException("Missing header in " + file);
+            }
+            double epoch;
+            try {
+                epoch = Double.parseDouble(header.trim().split("\\s+")[0]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad epoch in " + file + ": " + header);
+            }
+
+            int capacity = index(12, 12) + 1;
+            double[] g = new double[capacity];
+            double[] h = new double[capacity];
+            double[] dg = new double[capacity];
+            double[] dh = new double[capacity];
+            int degree = 0;
+            String line;
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                if (trimmed.startsWith("9999")) {
+                    break;
+                }
+                String[] fields = trimmed.split("\\s+");
+                if (fields.length < 6) {
+                    throw new IOException(file + ":" + lineNumber + ": expected n m g h dg dh");
+                }
+                int n;
+                int m;
+                try {
+                    n = Integer.parseInt(fields[0]);
+                    m = Integer.parseInt(fields[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": bad degree or order");
+                }
+                if (n < 1 || m < 0 || m > n) {
+                    throw new IOException(file + ":" + lineNumber + ": bad degree " + n + " order " + m);
+                }
+                int i = index(n, m);
+                if (i >= g.length) {
+                    int grown = index(n, n) + 1;
+                    g = Arrays.copyOf(g, grown);
+                    h = Arrays.copyOf(h, grown);
+                    dg = Arrays.copyOf(dg, grown);
+                    dh = Arrays.copyOf(dh, grown);
+                }
+                try {
+                    g[i] = Double.parseDouble(fields[2]);
+                    h[i] = Double.parseDouble(fields[3]);
+                    dg[i] = Double.parseDouble(fields[4]);
+                    dh[i] = Double.parseDouble(fields[5]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": bad coefficient");
+                }
+                degree = Math.max(degree, n);
+            }
+            if (degree == 0) {
+                throw new IOException("No coefficients in " + file);
+            }
+            return new WorldMagneticModel(epoch, degree, g, h, dg, dh);
+        }
+    }
+
+    private static int index(int n, int m) {
+        return n * (n + 1) / 2 + m;
+    }
+
+    public double getEpoch() {
+        return mEpoch;
+    }
+
+    public int getDegree() {
+        return mDegree;
+    }
+
+    /**
+     * Computes the field at a position above the WGS-84 ellipsoid.
+     *
+     * @param latitude Geodetic latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @param altitude Height above the ellipsoid in km.
+     * @param year Date as decimal year, e.g. 2020.5.
+     * @param field Receives the north, east and down components in nT.
+     */
+    public void evaluate(double latitude, double longitude, double altitude, double year, double[] field) {
+        double dt = year - mEpoch;
+
+        // geodetic to geocentric spherical coordinates
+        double lat = Math.toRadians(latitude);
+        double sinLat = Math.sin(lat);
+        double cosLat = Math.cos(lat);
+        double rc = WGS84_A / Math.sqrt(1 - WGS84_E2 * sinLat * sinLat);
+        double p = (rc + altitude) * cosLat;
+        double z = (rc * (1 - WGS84_E2) + altitude) * sinLat;
+        double r = Math.sqrt(p * p + z * z);
+        double geocentricLat = Math.asin(z / r);
+
+        // x = cos(colatitude), s = sin(colatitude); avoid the pole singularity
+        double x = Math.sin(geocentricLat);
+        double s = Math.max(Math.cos(geocentricLat), 1e-10);
+
+        double lon = Math.toRadians(longitude);
+        for (int m = 0; m <= mDegree; m++) {
+            mCosM[m] = Math.cos(m * lon);
+            mSinM[m] = Math.sin(m * lon);
+        }
+
+        legendre(x, s);
+
+        double ratio = REFERENCE_RADIUS / r;
+        double power = ratio * ratio;
+        double br = 0;
+        double btheta = 0;
+        double blambda = 0;
+        for (int n = 1; n <= mDegree; n++) {
+            power *= ratio; // (a / r)^(n + 2)
+            double sumR = 0;
+            double sumTheta = 0;
+            double sumLambda = 0;
+            for (int m = 0; m <= n; m++) {
+                int i = index(n, m);
+                double g = mG[i] + dt * mDG[i];
+                double h = mH[i] + dt * mDH[i];
+                double cos = mCosM[m];
+                double sin = mSinM[m];
+                double gh = g * cos + h * sin;
+                sumR += gh * mP[i];
+                sumTheta += gh * mDP[i];
+                sumLambda += m * (g * sin - h * cos) * mP[i];
+            }
+            br += (n + 1) * power * sumR;
+            btheta -= power * sumTheta;
+            blambda += power * sumLambda;
+        }
+        blambda /= s;
+
+        // geocentric north, east, down
+        double north = -btheta;
+        double east = blambda;
+        double down = -br;
+
+        // rotate to the geodetic frame
+        double psi = geocentricLat - lat;
+        double cosPsi = Math.cos(psi);
+        double sinPsi = Math.sin(psi);
+        field[0] = north * cosPsi - down * sinPsi;
+        field[1] = east;
+        field[2] = north * sinPsi + down * cosPsi;
+    }
+
+    /**
+     * Fills mP with the Schmidt semi-normalized associated Legendre
+     * functions P(n, m)(cos(colatitude)) and mDP with their derivatives by
+     * the colatitude.
+     */
+    private void legendre(double x, double s) {
+        double[] p = mP;
+        double[] dp = mDP;
+        p[0] = 1;
+        dp[0] = 0;
+        for (int n = 1; n <= mDegree; n++) {
+            // sectoral term from the previous one
+            int nn = index(n, n);
+            int prev = index(n - 1, n - 1);
+            if (n == 1) {
+                p[nn] = s;
+                dp[nn] = x;
+            } else {
+                double k = Math.sqrt((2 * n - 1) / (2.0 * n));
+                p[nn] = k * s * p[prev];
+                dp[nn] = k * (s * dp[prev] + x * p[prev]);
+            }
+            // the other orders from degrees n - 1 and n - 2
+            for (int m = 0; m < n; m++) {
+                int i = index(n, m);
+                int i1 = index(n - 1, m);
+                double a = (2 * n - 1) * x * p[i1];
+                double da = (2 * n - 1) * (x * dp[i1] - s * p[i1]);
+                if (n - 2 >= m) {
+                    int i2 = index(n - 2, m);
+                    double root = mRoots[index(n - 1, m)];
+                    a -= root * p[i2];
+                    da -= root * dp[i2];
+                }
+                double root = mRoots[i];
+                p[i] = a / root;
+                dp[i] = da / root;
+            }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package recording;
+
+import engine.SimulationEngine;
+import model.AccelerometerModel;
+import model.GyroscopeModel;
+import model.MagneticFieldModel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records sensor read-outs and the input orientation into a session
+ * directory, see SessionFormat.
+ *
+ * Records are written into memory-mapped segment files, so appending one is
+ * a handful of stores into memory and never blocks on the disk. The
+ * recorder can be registered as tick listener of a SimulationEngine to
+ * record on the engine thread.
+ *
+ * Everything that does block runs on a background thread: the next segment
+ * is created and mapped while the current one fills up, a full segment is
+ * forced to the disk and closed after the switch, and index entries are
+ * collected in memory and written in batches. A rollover is then only a
+ * swap of buffers. Errors of the background thread are thrown by the next
+ * record(), flush() or close().
+ *
+ * The recorder is not thread-safe.
+ */
+public class SensorRecorder implements SimulationEngine.TickListener, Closeable {
+
+    /** Default size of a segment file, 64 MB. */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    /** Default number of records between two index entries. */
+    public static final int DEFAULT_INDEX_INTERVAL = 1024;
+    /** Index entries collected before they are written. */
+    private static final int INDEX_BATCH = 256;
+    private static final int PAGE_BYTES = 4096;
+
+    private final Path mDirectory;
+    private final int mRecordsPerSegment;
+    private final int mIndexInterval;
+
+    private final FileChannel mIndexChannel;
+    /** Index entries not yet handed to the background thread. */
+    private ByteBuffer mIndexBatch = newIndexBatch();
+
+    /** Creates segments, closes full ones and writes the index. */
+    private final ExecutorService mBackground = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-recorder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** First error of the background thread, thrown on the recording thread. */
+    private volatile IOException mBackgroundError;
+
+    private FileChannel mSegmentChannel;
+    private MappedByteBuffer mSegment;
+    private int mSegmentNumber = -1;
+    private long mSegmentCount;
+    /** The segment after the current one, being created in the background. */
+    private Future<Segment> mNextSegment;
+
+    private long mRecordCount;
+    private long mLastTimestamp = Long.MIN_VALUE;
+
+    /** Minimum time between two records taken from engine ticks. */
+    private long mPeriodNanos;
+    private long mNextRecord = Long.MIN_VALUE;
+
+    public SensorRecorder(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_INDEX_INTERVAL);
+    }
+
+    /**
+     * @param directory Session directory, created if necessary. Must not
+     *            contain a session yet.
+     * @param segmentBytes Size of one segment file.
+     * @param indexInterval Number of records between two index entries.
+     */
+    public SensorRecorder(Path directory, long segmentBytes, int indexInterval) throws IOException {
+        long records = (segmentBytes - SessionFormat.SEGMENT_HEADER_SIZE) / SessionFormat.RECORD_SIZE;
+        if (records < 1 || records > Integer.MAX_VALUE / SessionFormat.RECORD_SIZE) {
+            throw new IllegalArgumentException("Bad segment size: " + segmentBytes);
+        }
+        if (indexInterval < 1) {
+            throw new IllegalArgumentException("Bad index interval: " + indexInterval);
+        }
+        mDirectory = directory;
+        mRecordsPerSegment = (int) records;
+        mIndexInterval = indexInterval;
+
+        Files.createDirectories(directory);
+        mIndexChannel = FileChannel.open(directory.resolve(SessionFormat.INDEX_FILE),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SessionFormat.INDEX_HEADER_SIZE);
+        header.putInt(SessionFormat.INDEX_MAGIC);
+        header.putInt(SessionFormat.VERSION);
+        header.putInt(indexInterval);
+        header.flip();
+        writeFully(mIndexChannel, header);
+
+        mNextSegment = prepareSegment(0);
+    }
+
+    /**
+     * A segment file, created at its full size, mapped and given its
+     * header.
+     */
+    private static class Segment {
+        final FileChannel mChannel;
+        final MappedByteBuffer mBuffer;
+
+        Segment(FileChannel channel, MappedByteBuffer buffer) {
+            mChannel = channel;
+            mBuffer = buffer;
+        }
+    }
+
+    /**
+     * Records every tick, or one tick per period if setPeriodNanos() was
+     * called.
+     */
+    @Override
+    public void onTick(SimulationEngine engine) {
+        long timestamp = engine.getClock().nanoTime();
+        if (timestamp < mNextRecord) {
+            return;
+        }
+        mNextRecord = mPeriodNanos > 0 ? Math.max(mNextRecord + mPeriodNanos, timestamp) : timestamp;
+        try {
+            record(timestamp, engine);
+        } catch (IOException e) {
+            throw new IllegalStateException("Recording failed", e);
+        }
+    }
+
+    /**
+     * Appends the current state of the engine.
+     */
+    public void record(long timestamp, SimulationEngine engine) throws IOException {
+        AccelerometerModel accelerometerModel = engine.getAccelerometerModel();
+        GyroscopeModel gyroscopeModel = engine.getGyroscopeModel();
+        MagneticFieldModel magneticFieldModel = engine.getMagneticFieldModel();
+
+        ByteBuffer segment = beginRecord(timestamp);
+        segment.putDouble(engine.getYaw());
+        segment.putDouble(engine.getPitch());
+        segment.putDouble(engine.getRoll());
+        segment.putDouble(accelerometerModel.getReadAccelerometerX());
+        segment.putDouble(accelerometerModel.getReadAccelerometerY());
+        segment.putDouble(accelerometerModel.getReadAccelerometerZ());
+        segment.putDouble(gyroscopeModel.getReadGyroscopeYaw());
+        segment.putDouble(gyroscopeModel.getReadGyroscopePitch());
+        segment.putDouble(gyroscopeModel.getReadGyroscopeRoll());
+        segment.putDouble(magneticFieldModel.getReadCompassX());
+        segment.putDouble(magneticFieldModel.getReadCompassY());
+        segment.putDouble(magneticFieldModel.getReadCompassZ());
+        endRecord();
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param timestamp Time stamp in nanoseconds, not before the last one.
+     * @param values SessionFormat.NUM_VALUES values in record order.
+     */
+    public void record(long timestamp, double[] values) throws IOException {
+        ByteBuffer segment = beginRecord(timestamp);
+        for (int i = 0; i < SessionFormat.NUM_VALUES; i++) {
+            segment.putDouble(values[i]);
+        }
+        endRecord();
+    }
+
+    private ByteBuffer beginRecord(long timestamp) throws IOException {
+        if (timestamp < mLastTimestamp) {
+            throw new IllegalArgumentException("Time stamps must not decrease: "
+                    + timestamp + " < " + mLastTimestamp);
+        }
+        mLastTimestamp = timestamp;
+
+        checkBackground();
+        if (mSegment == null || mSegmentCount == mRecordsPerSegment) {
+            nextSegment();
+        }
+        if (mRecordCount % mIndexInterval == 0) {
+            mIndexBatch.putLong(timestamp);
+            mIndexBatch.putLong(mRecordCount);
+            if (!mIndexBatch.hasRemaining()) {
+                writeIndexBatch();
+            }
+        }
+        mSegment.putLong(timestamp);
+        return mSegment;
+    }
+
+    private void endRecord() {
+        mSegmentCount++;
+        mRecordCount++;
+        // keep the header current, so a crash loses nothing that was mapped
+        mSegment.putLong(SessionFormat.HEADER_COUNT, mSegmentCount);
+    }
+
+    /**
+     * Switches to the segment prepared in the background and starts
+     * preparing the one after it.
+     */
+    private void nextSegment() throws IOException {
+        Segment next = await(mNextSegment);
+        closeSegment();
+        mSegmentNumber++;
+        mSegmentChannel = next.mChannel;
+        mSegment = next.mBuffer;
+        mSegment.position(SessionFormat.SEGMENT_HEADER_SIZE);
+        mSegmentCount = 0;
+        mNextSegment = prepareSegment(mSegmentNumber + 1);
+    }
+
+    /**
+     * Creates and maps a segment file on the background thread. Every
+     * segment before it is filled up, so its first record is known ahead.
+     */
+    private Future<Segment> prepareSegment(int number) {
+        return mBackground.submit(() -> {
+            long size = SessionFormat.SEGMENT_HEADER_SIZE + (long) mRecordsPerSegment * SessionFormat.RECORD_SIZE;
+            FileChannel channel = FileChannel.open(mDirectory.resolve(SessionFormat.segmentFileName(number)),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            // touch every page, so the recording thread takes no page faults
+            for (int i = 0; i < size; i += PAGE_BYTES) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.putInt(SessionFormat.HEADER_MAGIC, SessionFormat.SEGMENT_MAGIC);
+            buffer.putInt(SessionFormat.HEADER_VERSION, SessionFormat.VERSION);
+            buffer.putInt(SessionFormat.HEADER_RECORD_SIZE, SessionFormat.RECORD_SIZE);
+            buffer.putInt(SessionFormat.HEADER_SEGMENT, number);
+            buffer.putLong(SessionFormat.HEADER_COUNT, 0);
+            buffer.putLong(SessionFormat.HEADER_FIRST_RECORD, (long) number * mRecordsPerSegment);
+            return new Segment(channel, buffer);
+        });
+    }
+
+    /**
+     * Hands the current segment to the background thread, which forces it
+     * to the disk and closes it.
+     */
+    private void closeSegment() {
+        if (mSegment == null) {
+            return;
+        }
+        MappedByteBuffer segment = mSegment;
+        FileChannel channel = mSegmentChannel;
+        mSegment = null;
+        mSegmentChannel = null;
+        runInBackground(() -> {
+            segment.force();
+            channel.close();
+        });
+    }
+
+    /**
+     * Hands the collected index entries to the background thread.
+     */
+    private void writeIndexBatch() {
+        if (mIndexBatch.position() == 0) {
+            return;
+        }
+        ByteBuffer batch = mIndexBatch;
+        batch.flip();
+        mIndexBatch = newIndexBatch();
+        runInBackground(() -> writeFully(mIndexChannel, batch));
+    }
+
+    private static ByteBuffer newIndexBatch() {
+        return ByteBuffer.allocate(INDEX_BATCH * SessionFormat.INDEX_ENTRY_SIZE);
+    }
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    private void runInBackground(IOTask task) {
+        mBackground.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                if (mBackgroundError == null) {
+                    mBackgroundError = e;
+                }
+            }
+        });
+    }
+
+    private void checkBackground() throws IOException {
+        IOException error = mBackgroundError;
+        if (error != null) {
+            throw new IOException("Background write failed", error);
+        }
+    }
+
+    /**
+     * Waits for a result of the background thread.
+     */
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the background thread", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes recorded data through to the disk. Blocks until the background
+     * thread has caught up.
+     */
+    public void flush() throws IOException {
+        writeIndexBatch();
+        await(mBackground.submit(() -> null));
+        checkBackground();
+        if (mSegment != null) {
+            mSegment.force();
+        }
+        mIndexChannel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBackground.isShutdown()) {
+            return;
+        }
+        writeIndexBatch();
+        closeSegment();
+        // the prepared segment was never used
+        Future<Segment> unused = mNextSegment;
+        mNextSegment = null;
+        int number = mSegmentNumber + 1;
+        runInBackground(() -> {
+            Segment segment = await(unused);
+            segment.mChannel.close();
+            Files.delete(mDirectory.resolve(SessionFormat.segmentFileName(number)));
+        });
+        mBackground.shutdown();
+        try {
+            while (!mBackground.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting, the last segment is being forced
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mIndexChannel.close();
+        checkBackground();
+    }
+
+    /**
+     * Limits how often engine ticks are recorded.
+     *
+     * @param periodNanos Minimum time between two records, 0 for every tick.
+     */
+    public void setPeriodNanos(long periodNanos) {
+        mPeriodNanos = periodNanos;
+    }
+
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    public Path getDirectory() {
+        return mDirectory;
+    }
+}
@@ -0,0 +1,81 @@
+package recording;
+
+/**
+ * Layout of a recorded session.
+ *
+ * A session is a directory holding segment files and one index file. All
+ * numbers are in network byte order.
+ *
+ * Each segment file (segment-NNNNN.dat) starts with a header of
+ * SEGMENT_HEADER_SIZE bytes followed by fixed-width records:
+ *
+ * <pre>
+ * header offset size
+ *             0    4  SEGMENT_MAGIC
+ *             4    4  VERSION
+ *             8    4  RECORD_SIZE
+ *            12    4  segment number
+ *            16    8  number of records in this segment
+ *            24    8  number of the first record in this segment
+ *
+ * record offset size
+ *             0    8  time stamp in nanoseconds
+ *             8   24  input orientation: yaw, pitch, roll (double, degrees)
+ *            32   24  accelerometer read-out x, y, z (double)
+ *            56   24  gyroscope read-out yaw, pitch, roll (double)
+ *            80   24  magnetic field read-out x, y, z (double)
+ * </pre>
+ *
+ * Segment files are created at their full size; the record count in the
+ * header tells how much of it is used.
+ *
+ * The index file (index.dat) has a header of INDEX_HEADER_SIZE bytes
+ * (INDEX_MAGIC, VERSION, index interval) followed by entries of
+ * INDEX_ENTRY_SIZE bytes (time stamp, record number), one for every
+ * interval-th record starting with the first.
+ */
+public final class SessionFormat {
+
+    public static final int SEGMENT_MAGIC = 0x53524543; // "SREC"
+    public static final int INDEX_MAGIC = 0x53494458; // "SIDX"
+    public static final int VERSION = 1;
+
+    public static final int SEGMENT_HEADER_SIZE = 64;
+    public static final int INDEX_HEADER_SIZE = 16;
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    /** Number of values in a record besides the time stamp. */
+    public static final int NUM_VALUES = 12;
+    public static final int RECORD_SIZE = 8 + NUM_VALUES * 8;
+
+    // Segment header fields
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_RECORD_SIZE = 8;
+    static final int HEADER_SEGMENT = 12;
+    static final int HEADER_COUNT = 16;
+    static final int HEADER_FIRST_RECORD = 24;
+
+    // Value positions within a record, after the time stamp
+    public static final int YAW = 0;
+    public static final int PITCH = 1;
+    public static final int ROLL = 2;
+    public static final int ACCELEROMETER_X = 3;
+    public static final int ACCELEROMETER_Y = 4;
+    public static final int ACCELEROMETER_Z = 5;
+    public static final int GYROSCOPE_YAW = 6;
+    public static final int GYROSCOPE_PITCH = 7;
+    public static final int GYROSCOPE_ROLL = 8;
+    public static final int MAGNETIC_FIELD_X = 9;
+    public static final int MAGNETIC_FIELD_Y = 10;
+    public static final int MAGNETIC_FIELD_Z = 11;
+
+    public static final String INDEX_FILE = "index.dat";
+
+    private SessionFormat() {
+    }
+
+    public static String segmentFileName(int segment) {
+        return String.format("segment-%05d.dat", segment);
+    }
+}
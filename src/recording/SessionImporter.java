@@ -0,0 +1,73 @@
+package recording;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts a CSV capture into a session directory.
+ *
+ * Every line holds the time stamp in nanoseconds followed by the
+ * SessionFormat.NUM_VALUES values in record order, separated by commas:
+ *
+ * <pre>
+ * timestamp, yaw, pitch, roll, accX, accY, accZ,
+ *     gyroYaw, gyroPitch, gyroRoll, magX, magY, magZ
+ * </pre>
+ *
+ * Empty lines, lines starting with '#' and a first line that does not start
+ * with a number (a header) are skipped.
+ *
+ * Usage: recording.SessionImporter capture.csv session-directory
+ */
+public class SessionImporter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SessionImporter capture.csv session-directory");
+            System.exit(1);
+        }
+        long records = importCsv(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Imported " + records + " records");
+    }
+
+    /**
+     * @return The number of records imported.
+     */
+    public static long importCsv(Path csv, Path directory) throws IOException {
+        double[] values = new double[SessionFormat.NUM_VALUES];
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+             SensorRecorder recorder = new SensorRecorder(directory)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (lineNumber == 1 && !Character.isDigit(line.charAt(0)) && line.charAt(0) != '-') {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != SessionFormat.NUM_VALUES + 1) {
+                    throw new IOException(csv + ":" + lineNumber + ": expected "
+                            + (SessionFormat.NUM_VALUES + 1) + " fields, found " + fields.length);
+                }
+                try {
+                    long timestamp = Long.parseLong(fields[0].trim());
+                    for (int i = 0; i < SessionFormat.NUM_VALUES; i++) {
+                        values[i] = Double.parseDouble(fields[i + 1].trim());
+                    }
+                    recorder.record(timestamp, values);
+                } catch (NumberFormatException e) {
+                    throw new IOException(csv + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+            return recorder.getRecordCount();
+        }
+    }
+}
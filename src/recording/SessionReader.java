@@ -0,0 +1,175 @@
+package recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a session written by SensorRecorder, see SessionFormat.
+ *
+ * Segments are memory-mapped read-only and records are addressed by their
+ * number. seek() finds a time stamp in O(log n) through the index.
+ */
+public class SessionReader implements Closeable {
+
+    private final MappedByteBuffer[] mSegments;
+    /** Number of the first record of each segment. */
+    private final long[] mSegmentFirst;
+    private final long mRecordCount;
+
+    // index entries
+    private final long[] mIndexTimestamps;
+    private final long[] mIndexRecords;
+
+    public SessionReader(Path directory) throws IOException {
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        List<Long> firsts = new ArrayList<>();
+        long count = 0;
+        for (int i = 0; ; i++) {
+            Path file = directory.resolve(SessionFormat.segmentFileName(i));
+            if (!Files.exists(file)) {
+                break;
+            }
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (segment.getInt(SessionFormat.HEADER_MAGIC) != SessionFormat.SEGMENT_MAGIC
+                    || segment.getInt(SessionFormat.HEADER_VERSION) != SessionFormat.VERSION
+                    || segment.getInt(SessionFormat.HEADER_RECORD_SIZE) != SessionFormat.RECORD_SIZE) {
+                throw new IOException("Not a session segment: " + file);
+            }
+            segments.add(segment);
+            firsts.add(count);
+            count += segment.getLong(SessionFormat.HEADER_COUNT);
+        }
+        if (segments.isEmpty()) {
+            throw new IOException("No session in " + directory);
+        }
+        mSegments = segments.toArray(new MappedByteBuffer[0]);
+        mSegmentFirst = new long[firsts.size()];
+        for (int i = 0; i < mSegmentFirst.length; i++) {
+            mSegmentFirst[i] = firsts.get(i);
+        }
+        mRecordCount = count;
+
+        byte[] index = Files.readAllBytes(directory.resolve(SessionFormat.INDEX_FILE));
+        ByteBuffer buffer = ByteBuffer.wrap(index);
+        if (index.length < SessionFormat.INDEX_HEADER_SIZE
+                || buffer.getInt(0) != SessionFormat.INDEX_MAGIC
+                || buffer.getInt(4) != SessionFormat.VERSION) {
+            throw new IOException("Not a session index in " + directory);
+        }
+        int entries = (index.length - SessionFormat.INDEX_HEADER_SIZE) / SessionFormat.INDEX_ENTRY_SIZE;
+        buffer.position(SessionFormat.INDEX_HEADER_SIZE);
+        long[] timestamps = new long[entries];
+        long[] records = new long[entries];
+        int n = 0;
+        for (int i = 0; i < entries; i++) {
+            timestamps[n] = buffer.getLong();
+            records[n] = buffer.getLong();
+            // an entry may be ahead of the records after a crash
+            if (records[n] < mRecordCount) {
+                n++;
+            }
+        }
+        mIndexTimestamps = Arrays.copyOf(timestamps, n);
+        mIndexRecords = Arrays.copyOf(records, n);
+    }
+
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return Time stamp of the given record in nanoseconds.
+     */
+    public long getTimestamp(long record) {
+        int segment = segmentOf(record);
+        return mSegments[segment].getLong(offsetOf(segment, record));
+    }
+
+    /**
+     * Reads the values of a record.
+     *
+     * @param record Record number.
+     * @param values Receives SessionFormat.NUM_VALUES values.
+     * @return Time stamp of the record in nanoseconds.
+     */
+    public long read(long record, double[] values) {
+        int segment = segmentOf(record);
+        MappedByteBuffer buffer = mSegments[segment];
+        int offset = offsetOf(segment, record);
+        for (int i = 0; i < SessionFormat.NUM_VALUES; i++) {
+            values[i] = buffer.getDouble(offset + 8 + 8 * i);
+        }
+        return buffer.getLong(offset);
+    }
+
+    /**
+     * Finds the first record at or after a time stamp.
+     *
+     * @param timestamp Time stamp in nanoseconds.
+     * @return Record number, or getRecordCount() if all records are earlier.
+     */
+    public long seek(long timestamp) {
+        // first index entry at or after the time stamp
+        int lo = 0;
+        int hi = mIndexTimestamps.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mIndexTimestamps[mid] < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // the record lies between the previous entry and this one
+        long first = lo == 0 ? 0 : mIndexRecords[lo - 1];
+        long last = lo == mIndexTimestamps.length ? mRecordCount : mIndexRecords[lo];
+        while (first < last) {
+            long mid = (first + last) >>> 1;
+            if (getTimestamp(mid) < timestamp) {
+                first = mid + 1;
+            } else {
+                last = mid;
+            }
+        }
+        return first;
+    }
+
+    private int segmentOf(long record) {
+        if (record < 0 || record >= mRecordCount) {
+            throw new IndexOutOfBoundsException("Record " + record + " of " + mRecordCount);
+        }
+        int lo = 0;
+        int hi = mSegmentFirst.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (mSegmentFirst[mid] <= record) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private int offsetOf(int segment, long record) {
+        return SessionFormat.SEGMENT_HEADER_SIZE
+                + (int) (record - mSegmentFirst[segment]) * SessionFormat.RECORD_SIZE;
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released by the garbage collector; nothing else is held.
+    }
+}
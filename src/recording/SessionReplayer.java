@@ -0,0 +1,145 @@
+package recording;
+
+import engine.SimulationEngine;
+import utils.SimulatedClock;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded session.
+ *
+ * The recorded input orientation can be fed back through the sensor models
+ * of a SimulationEngine, so a capture can be checked against a new model
+ * version, or the recorded read-outs can be streamed as they are.
+ *
+ * Replay runs at real time (speed 1), N times faster (speed N) or as fast
+ * as possible (speed 0). seek() positions the replay at any time stamp in
+ * O(log n).
+ */
+public class SessionReplayer {
+
+    /**
+     * Receives replayed records.
+     */
+    public interface RecordListener {
+        /**
+         * @param timestamp Recorded time stamp in nanoseconds.
+         * @param values SessionFormat.NUM_VALUES values in record order.
+         *            Only valid during the call.
+         */
+        void onRecord(long timestamp, double[] values);
+    }
+
+    private final SessionReader mReader;
+    private final double[] mValues = new double[SessionFormat.NUM_VALUES];
+
+    private long mPosition;
+    private double mSpeed = 1;
+    private volatile boolean mStopped;
+
+    public SessionReplayer(SessionReader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * @param speed Replay speed relative to real time, or 0 to replay as fast
+     *            as possible.
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Negative speed: " + speed);
+        }
+        mSpeed = speed;
+    }
+
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Continues the replay at the first record at or after the time stamp.
+     */
+    public void seek(long timestamp) {
+        mPosition = mReader.seek(timestamp);
+    }
+
+    /**
+     * @return Number of the next record to replay.
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Makes a running replay return after the current record. May be called
+     * from any thread.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    /**
+     * Feeds the recorded input orientation through the sensor models of the
+     * engine, one tick per record. The engine clock, which must be a
+     * SimulatedClock, is set to the recorded time stamps, so engine listeners
+     * see the recorded timing.
+     *
+     * @param engine Engine that is not running on its own thread.
+     * @param endTimestamp Time stamp to stop before, or Long.MAX_VALUE.
+     * @return Number of records replayed.
+     */
+    public long replayInputs(SimulationEngine engine, long endTimestamp) {
+        if (!(engine.getClock() instanceof SimulatedClock)) {
+            throw new IllegalStateException("Replaying inputs requires a SimulatedClock");
+        }
+        if (engine.isRunning()) {
+            throw new IllegalStateException("Engine thread is running");
+        }
+        SimulatedClock clock = (SimulatedClock) engine.getClock();
+        return replay(endTimestamp, (timestamp, values) -> {
+            clock.setNanoTime(timestamp);
+            engine.setOrientation(values[SessionFormat.YAW], values[SessionFormat.PITCH],
+                    values[SessionFormat.ROLL]);
+            engine.tick();
+        });
+    }
+
+    /**
+     * Streams the recorded records to a listener.
+     *
+     * @param listener Receives every record.
+     * @param endTimestamp Time stamp to stop before, or Long.MAX_VALUE.
+     * @return Number of records replayed.
+     */
+    public long replayRecords(RecordListener listener, long endTimestamp) {
+        return replay(endTimestamp, listener);
+    }
+
+    private long replay(long endTimestamp, RecordListener listener) {
+        mStopped = false;
+        long count = mReader.getRecordCount();
+        long replayed = 0;
+        long startWall = System.nanoTime();
+        long startTimestamp = 0;
+
+        while (mPosition < count && !mStopped) {
+            long timestamp = mReader.read(mPosition, mValues);
+            if (timestamp >= endTimestamp) {
+                break;
+            }
+            if (replayed == 0) {
+                startTimestamp = timestamp;
+            } else if (mSpeed > 0) {
+                long due = startWall + (long) ((timestamp - startTimestamp) / mSpeed);
+                long remaining;
+                while ((remaining = due - System.nanoTime()) > 0 && !mStopped) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+            listener.onRecord(timestamp, mValues);
+            mPosition++;
+            replayed++;
+        }
+        return replayed;
+    }
+}
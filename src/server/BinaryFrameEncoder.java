@@ -0,0 +1,70 @@
+package server;
+
+import model.SensorModel;
+import model.SensorSample;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary wire format.
+ *
+ * Every frame is laid out in network byte order as
+ *
+ * <pre>
+ * offset size
+ *      0    1  format version, currently VERSION
+ *      1    1  sensor type, SensorModel.TYPE_*
+ *      2    1  flags, FLAG_DOUBLE if the values are doubles
+ *      3    1  number of values n
+ *      4    8  time stamp of the read-out in nanoseconds
+ *     12  4*n  values as float, or 8*n as double with FLAG_DOUBLE
+ * </pre>
+ *
+ * Encoding writes straight into the buffer and allocates nothing. The values
+ * and time stamp come from one consistent snapshot of the sensor read-out.
+ */
+public class BinaryFrameEncoder implements FrameEncoder {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_DOUBLE = 1;
+    public static final int HEADER_SIZE = 12;
+
+    private final boolean mDoublePrecision;
+    private final SensorSample mSample = new SensorSample();
+
+    /**
+     * @param doublePrecision Whether values are sent as double instead of
+     *            float.
+     */
+    public BinaryFrameEncoder(boolean doublePrecision) {
+        mDoublePrecision = doublePrecision;
+    }
+
+    /**
+     * @return Size in bytes of a frame with the given number of values.
+     */
+    public int getFrameSize(int numValues) {
+        return HEADER_SIZE + numValues * (mDoublePrecision ? 8 : 4);
+    }
+
+    @Override
+    public void encode(SensorModel sensor, ByteBuffer out) {
+        int n = sensor.getNumValues();
+        sensor.getReadout().read(mSample);
+
+        out.put((byte) VERSION);
+        out.put((byte) sensor.getType());
+        out.put((byte) (mDoublePrecision ? FLAG_DOUBLE : 0));
+        out.put((byte) n);
+        out.putLong(mSample.timestamp);
+        if (mDoublePrecision) {
+            for (int i = 0; i < n; i++) {
+                out.putDouble(mSample.get(i));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                out.putFloat((float) mSample.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package server;
+
+import model.SensorModel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the current read-out of a sensor into a frame of the wire format.
+ */
+public interface FrameEncoder {
+
+    /**
+     * Appends one frame at the position of the buffer.
+     *
+     * @param sensor Sensor whose read-out is encoded.
+     * @param out Buffer receiving the frame.
+     */
+    void encode(SensorModel sensor, ByteBuffer out);
+}
@@ -0,0 +1,337 @@
+package server;
+
+import model.SensorModel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams sensor read-outs to connected emulators over TCP.
+ *
+ * A single thread serves all connections through a Selector. Each enabled
+ * sensor is sent at its own update rate. The samples due at one time are
+ * encoded once into a shared buffer, which is written directly to every
+ * connection that has nothing pending; only what a socket does not accept
+ * is copied into the write buffer of that connection. Connections that
+ * cannot keep up lose samples instead of blocking the others.
+ *
+ * The wire format is chosen by the FrameEncoder, TextFrameEncoder by
+ * default.
+ */
+public class SensorStreamServer {
+
+    /** Shortest period between two samples of one sensor (for FASTEST). */
+    public static final long MIN_PERIOD_NANOS = 1000000L;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+
+    private final SensorModel[] mSensors;
+    private final long[] mNextSend;
+    private final int mPort;
+
+    private final List<Connection> mConnections = new ArrayList<>();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    private final FrameEncoder mEncoder;
+
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    /** Frames due at the current time, shared by all connections. */
+    private final ByteBuffer mBatch = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    /**
+     * @param port TCP port to listen on, or 0 for any free port.
+     * @param sensors Sensors to stream. Only enabled sensors are sent.
+     */
+    public SensorStreamServer(int port, SensorModel... sensors) {
+        this(port, new TextFrameEncoder(), sensors);
+    }
+
+    /**
+     * @param port TCP port to listen on, or 0 for any free port.
+     * @param encoder Wire format.
+     * @param sensors Sensors to stream. Only enabled sensors are sent.
+     */
+    public SensorStreamServer(int port, FrameEncoder encoder, SensorModel... sensors) {
+        mPort = port;
+        mEncoder = encoder;
+        mSensors = sensors.clone();
+        mNextSend = new long[sensors.length];
+    }
+
+    /**
+     * Opens the server socket and starts serving in a daemon thread.
+     */
+    public synchronized void start() throws IOException {
+        if (mRunning) {
+            return;
+        }
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.configureBlocking(false);
+        mServerChannel.bind(new InetSocketAddress(mPort));
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+
+        mRunning = true;
+        mThread = new Thread(this::run, "sensor-stream-server");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops serving and closes all connections.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        mSelector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private void run() {
+        try {
+            long now = System.nanoTime();
+            for (int i = 0; i < mSensors.length; i++) {
+                mNextSend[i] = now;
+            }
+
+            while (mRunning) {
+                long timeout = nextDeadline() - System.nanoTime();
+                if (timeout > 0) {
+                    // select() takes milliseconds, round up so we do not spin
+                    mSelector.select((timeout + 999999) / 1000000);
+                } else {
+                    mSelector.selectNow();
+                }
+                handleSelectedKeys();
+                sendDueSamples(System.nanoTime());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (int i = 0; i < mSensors.length; i++) {
+            if (mSensors[i].isEnabled() && mNextSend[i] < deadline) {
+                deadline = mNextSend[i];
+            }
+        }
+        if (deadline == Long.MAX_VALUE) {
+            // nothing enabled, check again later
+            deadline = System.nanoTime() + 100 * MIN_PERIOD_NANOS;
+        }
+        return deadline;
+    }
+
+    private void handleSelectedKeys() throws IOException {
+        Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = mServerChannel.accept()) != null) {
+            Connection connection = new Connection(channel);
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                // drop this client only, the others keep streaming
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // already gone
+                }
+                continue;
+            }
+            mConnections.add(connection);
+            mConnectionCount.set(mConnections.size());
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            int n;
+            do {
+                // Commands from the emulator are not supported yet, drop them.
+                mReadBuffer.clear();
+                n = connection.mChannel.read(mReadBuffer);
+            } while (n > 0);
+            if (n < 0) {
+                close(connection);
+            }
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    private void sendDueSamples(long now) {
+        mBatch.clear();
+        for (int i = 0; i < mSensors.length; i++) {
+            SensorModel sensor = mSensors[i];
+            if (!sensor.isEnabled() || now < mNextSend[i]) {
+                continue;
+            }
+            mNextSend[i] += Math.max(sensor.getUpdatePeriodNanos(), MIN_PERIOD_NANOS);
+            if (mNextSend[i] < now) {
+                // Don't lag too much behind.
+                mNextSend[i] = now;
+            }
+            mEncoder.encode(sensor, mBatch);
+        }
+        mBatch.flip();
+
+        for (int c = mConnections.size() - 1; c >= 0; c--) {
+            Connection connection = mConnections.get(c);
+            if (mBatch.hasRemaining()) {
+                send(connection);
+            } else {
+                flush(connection);
+            }
+        }
+    }
+
+    /**
+     * Sends the shared batch to one connection, keeping whole frames in
+     * order.
+     */
+    private void send(Connection connection) {
+        ByteBuffer pending = connection.mWriteBuffer;
+        mBatch.position(0);
+        if (pending.position() == 0) {
+            // Nothing queued: write straight from the shared batch.
+            try {
+                connection.mChannel.write(mBatch);
+            } catch (IOException e) {
+                close(connection);
+                return;
+            }
+            if (!mBatch.hasRemaining()) {
+                return;
+            }
+            // The rest of a partly written frame always fits, as the
+            // buffer is empty.
+            pending.put(mBatch);
+        } else if (pending.remaining() >= mBatch.remaining()) {
+            pending.put(mBatch);
+        } else {
+            connection.mDropped++;
+        }
+        flush(connection);
+    }
+
+    private void flush(Connection connection) {
+        ByteBuffer buffer = connection.mWriteBuffer;
+        if (buffer.position() == 0) {
+            return;
+        }
+        try {
+            buffer.flip();
+            connection.mChannel.write(buffer);
+            buffer.compact();
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        // only ask for OP_WRITE while data is pending
+        int ops = buffer.position() > 0
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                : SelectionKey.OP_READ;
+        if (connection.mKey.interestOps() != ops) {
+            connection.mKey.interestOps(ops);
+        }
+    }
+
+    private void close(Connection connection) {
+        connection.mKey.cancel();
+        try {
+            connection.mChannel.close();
+        } catch (IOException e) {
+            // already gone
+        }
+        mConnections.remove(connection);
+        mConnectionCount.set(mConnections.size());
+    }
+
+    private void closeAll() {
+        for (int c = mConnections.size() - 1; c >= 0; c--) {
+            close(mConnections.get(c));
+        }
+        try {
+            mServerChannel.close();
+            mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class Connection {
+        final SocketChannel mChannel;
+        final ByteBuffer mWriteBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        SelectionKey mKey;
+        /** Number of batches of frames dropped because the client was too slow. */
+        long mDropped;
+
+        Connection(SocketChannel channel) {
+            mChannel = channel;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package server;
+
+import model.SensorModel;
+import model.SensorSample;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+/**
+ * Text wire format: one line per sample made of the sensor name, a colon
+ * and the values separated by colons, as SensorModel.printSensorData()
+ * prints them.
+ *
+ * This is the original format, kept for compatibility. It formats every
+ * value as a string and is therefore much slower than BinaryFrameEncoder.
+ */
+public class TextFrameEncoder implements FrameEncoder {
+
+    private final StringWriter mText = new StringWriter();
+    private final PrintWriter mTextWriter = new PrintWriter(mText);
+    private final SensorSample mSample = new SensorSample();
+
+    @Override
+    public void encode(SensorModel sensor, ByteBuffer out) {
+        mText.getBuffer().setLength(0);
+        mTextWriter.print(sensor.getName());
+        // printSensorData() would read the values while the engine updates them
+        sensor.getReadout().read(mSample);
+        int n = sensor.getNumValues();
+        for (int i = 0; i < n; i++) {
+            mTextWriter.print(':');
+            mTextWriter.print(mSample.get(i));
+        }
+        mTextWriter.println();
+        mTextWriter.flush();
+
+        StringBuffer text = mText.getBuffer();
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            out.put((byte) text.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package utils;
+
+/**
+ * Source of time for the simulation, in nanoseconds.
+ *
+ * The origin is arbitrary but never negative, so values can be compared
+ * against time stamps initialised to 0.
+ */
+public interface Clock {
+
+    /** Clock following the real time of the machine. */
+    Clock WALL = new WallClock();
+
+    /**
+     * @return The current time in nanoseconds.
+     */
+    long nanoTime();
+}
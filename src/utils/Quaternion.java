@@ -0,0 +1,253 @@
+package utils;
+
+/**
+ * Unit quaternion describing a rotation.
+ *
+ * Quaternions compose with one multiplication, do not suffer from gimbal
+ * lock at pitch +-90 degrees and interpolate smoothly with slerp(). All
+ * operations work in place and allocate nothing.
+ *
+ * The conventions match RotationMatrix: a quaternion set by
+ * setReverseRollPitchYaw() converts to the same matrix as
+ * RotationMatrix.setReverseRollPitchYaw().
+ */
+public class Quaternion {
+    public double w;
+    public double x;
+    public double y;
+    public double z;
+
+    public Quaternion() {
+        w = 1;
+        x = 0;
+        y = 0;
+        z = 0;
+    }
+
+    public Quaternion(double w, double x, double y, double z) {
+        this.w = w;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public Quaternion(Quaternion q) {
+        set(q);
+    }
+
+    public void set(double w, double x, double y, double z) {
+        this.w = w;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public void set(Quaternion q) {
+        w = q.w;
+        x = q.x;
+        y = q.y;
+        z = q.z;
+    }
+
+    public void setIdentity() {
+        set(1, 0, 0, 0);
+    }
+
+    /**
+     * Sets this quaternion to a rotation around an axis.
+     *
+     * @param ax Axis x-component.
+     * @param ay Axis y-component.
+     * @param az Axis z-component.
+     * @param angle Angle in radians.
+     */
+    public void setAxisAngle(double ax, double ay, double az, double angle) {
+        double norm = Math.sqrt(ax * ax + ay * ay + az * az);
+        if (norm == 0) {
+            setIdentity();
+            return;
+        }
+        double s = Math.sin(angle / 2) / norm;
+        set(Math.cos(angle / 2), ax * s, ay * s, az * s);
+    }
+
+    /**
+     * Sets this quaternion to the rotation performed by
+     * Vector.reverserollpitchyaw(roll, pitch, yaw).
+     *
+     * @param roll roll in Degree.
+     * @param pitch pitch in Degree.
+     * @param yaw yaw in Degree.
+     */
+    public void setReverseRollPitchYaw(double roll, double pitch, double yaw) {
+        double halfRoll = Math.toRadians(roll) / 2;
+        double halfPitch = Math.toRadians(pitch) / 2;
+        double halfYaw = Math.toRadians(yaw) / 2;
+        double cr = Math.cos(halfRoll);
+        double sr = Math.sin(halfRoll);
+        double cp = Math.cos(halfPitch);
+        double sp = Math.sin(halfPitch);
+        double cy = Math.cos(halfYaw);
+        double sy = Math.sin(halfYaw);
+
+        // roll(-r) is a rotation around y by -r, pitch(-p) around x by p
+        // and yaw(-y) around z by y.
+        w = cr * cp * cy - sr * sp * sy;
+        x = cr * sp * cy - sr * cp * sy;
+        y = -sr * cp * cy - cr * sp * sy;
+        z = cr * cp * sy + sr * sp * cy;
+    }
+
+    /**
+     * Multiplies this quaternion from the right: this = this * q.
+     */
+    public void multiply(Quaternion q) {
+        multiply(this, q);
+    }
+
+    /**
+     * Sets this quaternion to the product a * b. Either argument may be this
+     * quaternion.
+     */
+    public void multiply(Quaternion a, Quaternion b) {
+        double nw = a.w * b.w - a.x * b.x - a.y * b.y - a.z * b.z;
+        double nx = a.w * b.x + a.x * b.w + a.y * b.z - a.z * b.y;
+        double ny = a.w * b.y - a.x * b.z + a.y * b.w + a.z * b.x;
+        double nz = a.w * b.z + a.x * b.y - a.y * b.x + a.z * b.w;
+        w = nw;
+        x = nx;
+        y = ny;
+        z = nz;
+    }
+
+    public void conjugate() {
+        x = -x;
+        y = -y;
+        z = -z;
+    }
+
+    public double dot(Quaternion q) {
+        return w * q.w + x * q.x + y * q.y + z * q.z;
+    }
+
+    public void normalize() {
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        if (norm == 0) {
+            setIdentity();
+            return;
+        }
+        double inv = 1 / norm;
+        w *= inv;
+        x *= inv;
+        y *= inv;
+        z *= inv;
+    }
+
+    /**
+     * Sets this quaternion to the spherical linear interpolation between a
+     * and b along the shorter arc. Either argument may be this quaternion.
+     *
+     * @param t Interpolation parameter, 0 gives a and 1 gives b.
+     */
+    public void slerp(Quaternion a, Quaternion b, double t) {
+        double bw = b.w;
+        double bx = b.x;
+        double by = b.y;
+        double bz = b.z;
+        double cos = a.dot(b);
+        if (cos < 0) {
+            // take the shorter arc
+            cos = -cos;
+            bw = -bw;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+        }
+
+        double ka;
+        double kb;
+        if (cos > 0.9995) {
+            // nearly parallel: linear interpolation is accurate and stable
+            ka = 1 - t;
+            kb = t;
+        } else {
+            double theta = Math.acos(cos);
+            double sin = Math.sin(theta);
+            ka = Math.sin((1 - t) * theta) / sin;
+            kb = Math.sin(t * theta) / sin;
+        }
+        set(ka * a.w + kb * bw, ka * a.x + kb * bx, ka * a.y + kb * by, ka * a.z + kb * bz);
+        normalize();
+    }
+
+    /**
+     * Stores the rotation matrix of this unit quaternion in m.
+     */
+    public void toRotationMatrix(RotationMatrix m) {
+        double xx = x * x;
+        double yy = y * y;
+        double zz = z * z;
+        double xy = x * y;
+        double xz = x * z;
+        double yz = y * z;
+        double wx = w * x;
+        double wy = w * y;
+        double wz = w * z;
+
+        m.m00 = 1 - 2 * (yy + zz);
+        m.m01 = 2 * (xy - wz);
+        m.m02 = 2 * (xz + wy);
+        m.m10 = 2 * (xy + wz);
+        m.m11 = 1 - 2 * (xx + zz);
+        m.m12 = 2 * (yz - wx);
+        m.m20 = 2 * (xz - wy);
+        m.m21 = 2 * (yz + wx);
+        m.m22 = 1 - 2 * (xx + yy);
+    }
+
+    /**
+     * Rotates the vector in place.
+     */
+    public void rotate(Vector v) {
+        // v' = v + 2w (q x v) + 2 q x (q x v)
+        double tx = 2 * (y * v.z - z * v.y);
+        double ty = 2 * (z * v.x - x * v.z);
+        double tz = 2 * (x * v.y - y * v.x);
+        v.x += w * tx + y * tz - z * ty;
+        v.y += w * ty + z * tx - x * tz;
+        v.z += w * tz + x * ty - y * tx;
+    }
+
+    /**
+     * @return Yaw in Degree, in [-180, 180], as passed to
+     *         setReverseRollPitchYaw().
+     */
+    public double getYaw() {
+        return Math.toDegrees(Math.atan2(2 * (x * y + w * z), 1 - 2 * (x * x + z * z)));
+    }
+
+    /**
+     * @return Pitch in Degree, in [-90, 90], as passed to
+     *         setReverseRollPitchYaw().
+     */
+    public double getPitch() {
+        double sin = -2 * (y * z - w * x);
+        return Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, sin))));
+    }
+
+    /**
+     * @return Roll in Degree, in [-180, 180], as passed to
+     *         setReverseRollPitchYaw().
+     */
+    public double getRoll() {
+        return Math.toDegrees(Math.atan2(-2 * (x * z + w * y), 1 - 2 * (x * x + y * y)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.4f", w) + ", "
+                + String.format("%.4f", x) + ", "
+                + String.format("%.4f", y) + ", "
+                + String.format("%.4f", z);
+    }
+}
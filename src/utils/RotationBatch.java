@@ -0,0 +1,155 @@
+package utils;
+
+/**
+ * Rotation matrices and xyz samples for batches of orientations.
+ *
+ * Samples are passed as one array per coordinate and the matrices are kept
+ * as one array per element (struct of arrays), so every kernel is a plain
+ * counted loop over primitive arrays without calls or allocations that the
+ * JIT can unroll and compile to SIMD instructions. Rotating a million samples
+ * this way avoids a Vector object and a trigonometry chain per sample.
+ *
+ * Matrix i is the same rotation as RotationMatrix.setReverseRollPitchYaw()
+ * for the i-th orientation.
+ */
+public class RotationBatch {
+    public final double[] m00, m01, m02;
+    public final double[] m10, m11, m12;
+    public final double[] m20, m21, m22;
+
+    public RotationBatch(int capacity) {
+        m00 = new double[capacity];
+        m01 = new double[capacity];
+        m02 = new double[capacity];
+        m10 = new double[capacity];
+        m11 = new double[capacity];
+        m12 = new double[capacity];
+        m20 = new double[capacity];
+        m21 = new double[capacity];
+        m22 = new double[capacity];
+    }
+
+    public int capacity() {
+        return m00.length;
+    }
+
+    /**
+     * Sets matrix i to the given matrix.
+     */
+    public void set(int i, RotationMatrix m) {
+        m00[i] = m.m00; m01[i] = m.m01; m02[i] = m.m02;
+        m10[i] = m.m10; m11[i] = m.m11; m12[i] = m.m12;
+        m20[i] = m.m20; m21[i] = m.m21; m22[i] = m.m22;
+    }
+
+    /**
+     * Copies matrix i into the given matrix.
+     */
+    public void get(int i, RotationMatrix m) {
+        m.m00 = m00[i]; m.m01 = m01[i]; m.m02 = m02[i];
+        m.m10 = m10[i]; m.m11 = m11[i]; m.m12 = m12[i];
+        m.m20 = m20[i]; m.m21 = m21[i]; m.m22 = m22[i];
+    }
+
+    /**
+     * Sets matrices from to to-1 to the rotations performed by
+     * Vector.reverserollpitchyaw(roll[i], pitch[i], yaw[i]).
+     *
+     * @param roll roll in Degree.
+     * @param pitch pitch in Degree.
+     * @param yaw yaw in Degree.
+     */
+    public void setReverseRollPitchYaw(double[] roll, double[] pitch, double[] yaw, int from, int to) {
+        checkRange(from, to);
+        for (int i = from; i < to; i++) {
+            double rollRad = Math.toRadians(roll[i]);
+            double pitchRad = Math.toRadians(pitch[i]);
+            double yawRad = Math.toRadians(yaw[i]);
+            double cr = Math.cos(rollRad);
+            double sr = Math.sin(rollRad);
+            double cp = Math.cos(pitchRad);
+            double sp = Math.sin(pitchRad);
+            double cy = Math.cos(yawRad);
+            double sy = Math.sin(yawRad);
+
+            // roll(-r) * pitch(-p) * yaw(-y)
+            m00[i] = cr * cy - sr * sp * sy;
+            m01[i] = -cr * sy - sr * sp * cy;
+            m02[i] = -sr * cp;
+            m10[i] = cp * sy;
+            m11[i] = cp * cy;
+            m12[i] = -sp;
+            m20[i] = sr * cy + cr * sp * sy;
+            m21[i] = -sr * sy + cr * sp * cy;
+            m22[i] = cr * cp;
+        }
+    }
+
+    /**
+     * Rotates sample i in place by matrix i, for i from from to to-1.
+     */
+    public void apply(double[] x, double[] y, double[] z, int from, int to) {
+        checkRange(from, to);
+        checkSamples(x, y, z, to);
+        double[] a00 = m00, a01 = m01, a02 = m02;
+        double[] a10 = m10, a11 = m11, a12 = m12;
+        double[] a20 = m20, a21 = m21, a22 = m22;
+        for (int i = from; i < to; i++) {
+            double vx = x[i];
+            double vy = y[i];
+            double vz = z[i];
+            x[i] = a00[i] * vx + a01[i] * vy + a02[i] * vz;
+            y[i] = a10[i] * vx + a11[i] * vy + a12[i] * vz;
+            z[i] = a20[i] * vx + a21[i] * vy + a22[i] * vz;
+        }
+    }
+
+    /**
+     * Rotates one world vector, such as gravity or the magnetic field, by
+     * matrix i and stores the result as sample i, for i from from to to-1.
+     */
+    public void apply(double vx, double vy, double vz,
+                      double[] dstX, double[] dstY, double[] dstZ, int from, int to) {
+        checkRange(from, to);
+        checkSamples(dstX, dstY, dstZ, to);
+        double[] a00 = m00, a01 = m01, a02 = m02;
+        double[] a10 = m10, a11 = m11, a12 = m12;
+        double[] a20 = m20, a21 = m21, a22 = m22;
+        for (int i = from; i < to; i++) {
+            dstX[i] = a00[i] * vx + a01[i] * vy + a02[i] * vz;
+            dstY[i] = a10[i] * vx + a11[i] * vy + a12[i] * vz;
+            dstZ[i] = a20[i] * vx + a21[i] * vy + a22[i] * vz;
+        }
+    }
+
+    /**
+     * Rotates samples from to to-1 in place by one shared matrix.
+     */
+    public static void apply(RotationMatrix m, double[] x, double[] y, double[] z, int from, int to) {
+        checkSamples(x, y, z, to);
+        double a00 = m.m00, a01 = m.m01, a02 = m.m02;
+        double a10 = m.m10, a11 = m.m11, a12 = m.m12;
+        double a20 = m.m20, a21 = m.m21, a22 = m.m22;
+        for (int i = from; i < to; i++) {
+            double vx = x[i];
+            double vy = y[i];
+            double vz = z[i];
+            x[i] = a00 * vx + a01 * vy + a02 * vz;
+            y[i] = a10 * vx + a11 * vy + a12 * vz;
+            z[i] = a20 * vx + a21 * vy + a22 * vz;
+        }
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || from > to || to > m00.length) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " of " + m00.length);
+        }
+    }
+
+    // Checking the bounds once up front lets the JIT drop the checks in the loop.
+    private static void checkSamples(double[] x, double[] y, double[] z, int to) {
+        if (to > x.length || to > y.length || to > z.length) {
+            throw new IndexOutOfBoundsException("Range end " + to + " exceeds the sample arrays");
+        }
+    }
+}
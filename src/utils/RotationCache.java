@@ -0,0 +1,227 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of rotations for integer orientations.
+ *
+ * The user interface only produces whole degrees, so there are at most
+ * 360 x 181 x 360 distinct orientations. This cache keeps the quaternion and
+ * rotation matrix of recently used ones in flat primitive arrays and evicts
+ * entries with the CLOCK (second chance) algorithm once the memory cap is
+ * reached. Lookups allocate nothing.
+ *
+ * The cache is not thread-safe.
+ */
+public class RotationCache {
+
+    /** Approximate memory used per cached orientation, in bytes. */
+    public static final int BYTES_PER_ENTRY = 128;
+
+    // doubles stored per entry: quaternion (4) and matrix (9)
+    private static final int STRIDE = 13;
+
+    private final int mCapacity;
+    private final double[] mData;
+    private final int[] mSlotKey;
+    private final boolean[] mReferenced;
+
+    /** Open addressing table of slot + 1, 0 marks an empty bucket. */
+    private final int[] mTable;
+    private final int mMask;
+
+    private int mSize;
+    private int mHand;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    /**
+     * @param maxBytes Memory cap for the cache, see BYTES_PER_ENTRY.
+     */
+    public RotationCache(long maxBytes) {
+        long capacity = Math.max(1, maxBytes / BYTES_PER_ENTRY);
+        // there are no more distinct keys than this
+        mCapacity = (int) Math.min(capacity, 360 * 181 * 360);
+        mData = new double[mCapacity * STRIDE];
+        mSlotKey = new int[mCapacity];
+        mReferenced = new boolean[mCapacity];
+
+        // keep the table at most half full
+        int tableSize = Integer.highestOneBit(mCapacity * 2 - 1) << 1;
+        mTable = new int[tableSize];
+        mMask = tableSize - 1;
+    }
+
+    /**
+     * Looks up the rotation performed by
+     * Vector.reverserollpitchyaw(roll, pitch, yaw), computing and caching it
+     * on a miss.
+     *
+     * @param roll roll in Degree.
+     * @param pitch pitch in Degree, from -90 to 90.
+     * @param yaw yaw in Degree.
+     * @param q Receives the rotation as quaternion.
+     * @param m Receives the rotation as matrix.
+     */
+    public void get(int roll, int pitch, int yaw, Quaternion q, RotationMatrix m) {
+        if (pitch < -90 || pitch > 90) {
+            throw new IllegalArgumentException("Pitch out of range: " + pitch);
+        }
+        roll = Math.floorMod(roll, 360);
+        yaw = Math.floorMod(yaw, 360);
+        int key = (yaw * 181 + pitch + 90) * 360 + roll;
+
+        int bucket = find(key);
+        if (mTable[bucket] != 0) {
+            int slot = mTable[bucket] - 1;
+            mReferenced[slot] = true;
+            mHits++;
+            read(slot, q, m);
+            return;
+        }
+
+        mMisses++;
+        q.setReverseRollPitchYaw(roll, pitch, yaw);
+        q.toRotationMatrix(m);
+
+        int slot;
+        if (mSize < mCapacity) {
+            slot = mSize++;
+        } else {
+            slot = evict();
+            // the table may have shifted, look for the free bucket again
+            bucket = find(key);
+        }
+        mSlotKey[slot] = key;
+        mReferenced[slot] = false;
+        mTable[bucket] = slot + 1;
+        write(slot, q, m);
+    }
+
+    /**
+     * @return The bucket holding key, or the empty bucket where it belongs.
+     */
+    private int find(int key) {
+        int i = hash(key) & mMask;
+        while (mTable[i] != 0 && mSlotKey[mTable[i] - 1] != key) {
+            i = (i + 1) & mMask;
+        }
+        return i;
+    }
+
+    /**
+     * Frees a slot chosen by the CLOCK algorithm.
+     *
+     * @return The freed slot.
+     */
+    private int evict() {
+        while (mReferenced[mHand]) {
+            mReferenced[mHand] = false;
+            mHand = (mHand + 1) % mCapacity;
+        }
+        int slot = mHand;
+        mHand = (mHand + 1) % mCapacity;
+        remove(find(mSlotKey[slot]));
+        mEvictions++;
+        return slot;
+    }
+
+    /**
+     * Empties a bucket, shifting back later entries of the probe sequence so
+     * lookups never need tombstones.
+     */
+    private void remove(int i) {
+        int j = i;
+        while (true) {
+            j = (j + 1) & mMask;
+            if (mTable[j] == 0) {
+                mTable[i] = 0;
+                return;
+            }
+            int home = hash(mSlotKey[mTable[j] - 1]) & mMask;
+            // The entry at j can only move to i if its home bucket does not
+            // lie cyclically in (i, j].
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                mTable[i] = mTable[j];
+                i = j;
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void read(int slot, Quaternion q, RotationMatrix m) {
+        int i = slot * STRIDE;
+        double[] d = mData;
+        q.w = d[i];
+        q.x = d[i + 1];
+        q.y = d[i + 2];
+        q.z = d[i + 3];
+        m.m00 = d[i + 4];
+        m.m01 = d[i + 5];
+        m.m02 = d[i + 6];
+        m.m10 = d[i + 7];
+        m.m11 = d[i + 8];
+        m.m12 = d[i + 9];
+        m.m20 = d[i + 10];
+        m.m21 = d[i + 11];
+        m.m22 = d[i + 12];
+    }
+
+    private void write(int slot, Quaternion q, RotationMatrix m) {
+        int i = slot * STRIDE;
+        double[] d = mData;
+        d[i] = q.w;
+        d[i + 1] = q.x;
+        d[i + 2] = q.y;
+        d[i + 3] = q.z;
+        d[i + 4] = m.m00;
+        d[i + 5] = m.m01;
+        d[i + 6] = m.m02;
+        d[i + 7] = m.m10;
+        d[i + 8] = m.m11;
+        d[i + 9] = m.m12;
+        d[i + 10] = m.m20;
+        d[i + 11] = m.m21;
+        d[i + 12] = m.m22;
+    }
+
+    public void clear() {
+        Arrays.fill(mTable, 0);
+        Arrays.fill(mReferenced, false);
+        mSize = 0;
+        mHand = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public long getHits() {
+        return mHits;
+    }
+
+    public long getMisses() {
+        return mMisses;
+    }
+
+    public long getEvictions() {
+        return mEvictions;
+    }
+
+    public void resetCounters() {
+        mHits = 0;
+        mMisses = 0;
+        mEvictions = 0;
+    }
+}
@@ -0,0 +1,108 @@
+package utils;
+
+/**
+ * 3x3 rotation matrix that can be applied in place to any number of vectors.
+ *
+ * Building the matrix costs the trigonometry of one roll/pitch/yaw chain;
+ * applying it costs nine multiply-adds and allocates nothing.
+ */
+public class RotationMatrix {
+    public double m00, m01, m02;
+    public double m10, m11, m12;
+    public double m20, m21, m22;
+
+    public RotationMatrix() {
+        setIdentity();
+    }
+
+    public RotationMatrix(RotationMatrix m) {
+        set(m);
+    }
+
+    public void setIdentity() {
+        m00 = 1; m01 = 0; m02 = 0;
+        m10 = 0; m11 = 1; m12 = 0;
+        m20 = 0; m21 = 0; m22 = 1;
+    }
+
+    public void set(RotationMatrix m) {
+        m00 = m.m00; m01 = m.m01; m02 = m.m02;
+        m10 = m.m10; m11 = m.m11; m12 = m.m12;
+        m20 = m.m20; m21 = m.m21; m22 = m.m22;
+    }
+
+    /**
+     * Sets this matrix to the rotation performed by
+     * Vector.reverserollpitchyaw(roll, pitch, yaw).
+     *
+     * @param roll roll in Degree.
+     * @param pitch pitch in Degree.
+     * @param yaw yaw in Degree.
+     */
+    public void setReverseRollPitchYaw(double roll, double pitch, double yaw) {
+        double rollRad = Math.toRadians(roll);
+        double pitchRad = Math.toRadians(pitch);
+        double yawRad = Math.toRadians(yaw);
+        double cr = Math.cos(rollRad);
+        double sr = Math.sin(rollRad);
+        double cp = Math.cos(pitchRad);
+        double sp = Math.sin(pitchRad);
+        double cy = Math.cos(yawRad);
+        double sy = Math.sin(yawRad);
+
+        // roll(-r) * pitch(-p) * yaw(-y)
+        m00 = cr * cy - sr * sp * sy;
+        m01 = -cr * sy - sr * sp * cy;
+        m02 = -sr * cp;
+        m10 = cp * sy;
+        m11 = cp * cy;
+        m12 = -sp;
+        m20 = sr * cy + cr * sp * sy;
+        m21 = -sr * sy + cr * sp * cy;
+        m22 = cr * cp;
+    }
+
+    /**
+     * Sets this matrix to the rotation performed by
+     * Vector.rollpitchyaw(roll, pitch, yaw), the inverse of
+     * setReverseRollPitchYaw().
+     *
+     * @param roll roll in Degree.
+     * @param pitch pitch in Degree.
+     * @param yaw yaw in Degree.
+     */
+    public void setRollPitchYaw(double roll, double pitch, double yaw) {
+        setReverseRollPitchYaw(roll, pitch, yaw);
+        transpose();
+    }
+
+    public void transpose() {
+        double t;
+        t = m01; m01 = m10; m10 = t;
+        t = m02; m02 = m20; m20 = t;
+        t = m12; m12 = m21; m21 = t;
+    }
+
+    /**
+     * Rotates the vector in place.
+     *
+     * @param v Vector to rotate.
+     */
+    public void apply(Vector v) {
+        double x = v.x;
+        double y = v.y;
+        double z = v.z;
+        v.x = m00 * x + m01 * y + m02 * z;
+        v.y = m10 * x + m11 * y + m12 * z;
+        v.z = m20 * x + m21 * y + m22 * z;
+    }
+
+    /**
+     * Rotates (x, y, z) and stores the result in dst.
+     */
+    public void apply(double x, double y, double z, Vector dst) {
+        dst.x = m00 * x + m01 * y + m02 * z;
+        dst.y = m10 * x + m11 * y + m12 * z;
+        dst.z = m20 * x + m21 * y + m22 * z;
+    }
+}
@@ -0,0 +1,41 @@
+package utils;
+
+/**
+ * Clock that only moves when advanced explicitly.
+ *
+ * This lets the simulation run faster than real time and produce the same
+ * time stamps on every run.
+ */
+public class SimulatedClock implements Clock {
+
+    private volatile long mNanoTime;
+
+    public SimulatedClock() {
+        this(0);
+    }
+
+    public SimulatedClock(long startNanos) {
+        mNanoTime = startNanos;
+    }
+
+    @Override
+    public long nanoTime() {
+        return mNanoTime;
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param nanos Nanoseconds to advance, must not be negative.
+     */
+    public void advance(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Cannot move clock backwards: " + nanos);
+        }
+        mNanoTime += nanos;
+    }
+
+    public void setNanoTime(long nanoTime) {
+        mNanoTime = nanoTime;
+    }
+}
@@ -46,34 +46,34 @@ public class Vector {
      * @param yaw yaw in Degree.
      */
     public void yaw(double yaw) {
-        Vector v = new Vector(this); // temporary vector
+        double vx = x; // temporary values
+        double vy = y;
         double yawRad = Math.toRadians(yaw);
         double cos = Math.cos(yawRad);
         double sin = Math.sin(yawRad);
-        x = cos * v.x + sin * v.y;
-        y = -sin * v.x + cos * v.y;
-        z = v.z;
+        x = cos * vx + sin * vy;
+        y = -sin * vx + cos * vy;
     }
 
     public void pitch(double pitch) {
-        Vector v = new Vector(this); // temporary vector
+        double vy = y; // temporary values
+        double vz = z;
         double pitchRad = Math.toRadians(pitch); // negative sign => positive as
         // defined in SDK.
         double cos = Math.cos(pitchRad);
         double sin = Math.sin(pitchRad);
-        x = v.x;
-        y = cos * v.y + sin * v.z;
-        z = -sin * v.y + cos * v.z;
+        y = cos * vy + sin * vz;
+        z = -sin * vy + cos * vz;
     }
 
     public void roll(double roll) {
-        Vector v = new Vector(this); // temporary vector
+        double vx = x; // temporary values
+        double vz = z;
         double rollRad = Math.toRadians(roll);
         double cos = Math.cos(rollRad);
         double sin = Math.sin(rollRad);
-        x = cos * v.x + sin * v.z;
-        y = v.y;
-        z = -sin * v.x + cos * v.z;
+        x = cos * vx + sin * vz;
+        z = -sin * vx + cos * vz;
     }
 
     public void rollpitchyaw(double roll, double pitch, double yaw) {
@@ -88,6 +88,33 @@ public class Vector {
         roll(-roll);
     }
 
+    /**
+     * Rotate the vector in place by a precomputed rotation matrix.
+     *
+     * @param m Rotation, e.g. from RotationMatrix.setReverseRollPitchYaw().
+     */
+    public void rotate(RotationMatrix m) {
+        m.apply(this);
+    }
+
+    public void set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public void set(Vector v) {
+        x = v.x;
+        y = v.y;
+        z = v.z;
+    }
+
+    public void add(Vector v) {
+        x += v.x;
+        y += v.y;
+        z += v.z;
+    }
+
     @Override
     public String toString() {
         //return String.format("%.2f", x + ", " + y + ", " + z);
@@ -0,0 +1,15 @@
+package utils;
+
+/**
+ * Clock based on System.nanoTime(), counted from the time this class was
+ * loaded.
+ */
+public class WallClock implements Clock {
+
+    private static final long ORIGIN = System.nanoTime();
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime() - ORIGIN;
+    }
+}
@@ -0,0 +1,76 @@
+package utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * Standard normal samples by the ziggurat method of Marsaglia and Tsang, in
+ * the 128-layer variant of Doornik (ZIGNOR).
+ *
+ * About 98% of the samples cost one random long, a table look-up and a
+ * multiplication; only the rest evaluates exp() or log(). Unlike
+ * Random.nextGaussian() it keeps no state of its own, so it works with any
+ * generator and is as reproducible as the generator.
+ */
+public final class ZigguratGaussian {
+
+    private static final int LAYERS = 128;
+    /** Start of the right tail. */
+    private static final double R = 3.442619855899;
+    /** Area of every layer. */
+    private static final double V = 9.91256303526217e-3;
+
+    private static final double[] X = new double[LAYERS + 1];
+    private static final double[] RATIO = new double[LAYERS];
+
+    static {
+        double f = Math.exp(-0.5 * R * R);
+        X[0] = V / f;
+        X[1] = R;
+        X[LAYERS] = 0;
+        for (int i = 2; i < LAYERS; i++) {
+            X[i] = Math.sqrt(-2 * Math.log(V / X[i - 1] + f));
+            f = Math.exp(-0.5 * X[i] * X[i]);
+        }
+        for (int i = 0; i < LAYERS; i++) {
+            RATIO[i] = X[i + 1] / X[i];
+        }
+    }
+
+    private ZigguratGaussian() {
+    }
+
+    /**
+     * @return A sample of the standard normal distribution.
+     */
+    public static double next(SplittableRandom random) {
+        while (true) {
+            long bits = random.nextLong();
+            // the low 7 bits pick the layer, the high 53 bits the position
+            int i = (int) bits & (LAYERS - 1);
+            double u = (bits >>> 11) * 0x1.0p-52 - 1;
+            if (Math.abs(u) < RATIO[i]) {
+                return u * X[i];
+            }
+            if (i == 0) {
+                return tail(random, u < 0);
+            }
+            double x = u * X[i];
+            double f0 = Math.exp(-0.5 * (X[i] * X[i] - x * x));
+            double f1 = Math.exp(-0.5 * (X[i + 1] * X[i + 1] - x * x));
+            if (f1 + random.nextDouble() * (f0 - f1) < 1) {
+                return x;
+            }
+        }
+    }
+
+    private static double tail(SplittableRandom random, boolean negative) {
+        double x;
+        double y;
+        do {
+            // 1 - nextDouble() is in (0, 1], so log() stays finite
+            x = Math.log(1 - random.nextDouble()) / R;
+            y = Math.log(1 - random.nextDouble());
+        } while (-2 * y < x * x);
+        return negative ? x - R : R - x;
+    }
+}